@@ -78,6 +78,7 @@ import org.elephant.actions.NearestNeighborLinkingAction.NearestNeighborLinkingA
 import org.elephant.actions.PredictSpotsAction;
 import org.elephant.actions.PredictSpotsAction.PredictSpotsActionMode;
 import org.elephant.actions.RabbitMQDatasetListener;
+import org.elephant.actions.RabbitMQPredictionListener;
 import org.elephant.actions.RabbitMQService;
 import org.elephant.actions.RabbitMQStatusListener;
 import org.elephant.actions.RecordSnapshotMovieAction;
@@ -428,11 +429,17 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 		final RabbitMQService rabbitMQService = new RabbitMQService();
 		rabbitMQService.init( pluginAppModel );
 		rabbitMQService.rabbitMQStatusListeners().add( ( RabbitMQStatusListener ) showControlPanelAction );
+		rabbitMQService.rabbitMQServerStatusListeners().add( elephantStatusService );
 		rabbitMQService.rabbitMQDatasetListeners().addAll(
 				pluginActions.stream()
 						.filter( action -> action instanceof RabbitMQDatasetListener )
 						.map( action -> ( RabbitMQDatasetListener ) action )
 						.collect( Collectors.toList() ) );
+		rabbitMQService.rabbitMQPredictionListeners().addAll(
+				pluginActions.stream()
+						.filter( action -> action instanceof RabbitMQPredictionListener )
+						.map( action -> ( RabbitMQPredictionListener ) action )
+						.collect( Collectors.toList() ) );
 		rabbitMQService.start();
 		// UnirestService
 		UnirestService unirestService = new UnirestService();
@@ -440,6 +447,7 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 		// UpdateTrainingParameters
 		final UpdateTrainingParametersService updateTrainingParametersService = new UpdateTrainingParametersService( pluginAppModel );
 		( ( ShowPreferencesAction ) showPreferencesAction ).addSettingsListener( updateTrainingParametersService );
+		elephantStatusService.elephantServerStatusListeners().add( updateTrainingParametersService );
 		// LoggerService
 		( ( ShowPreferencesAction ) showPreferencesAction ).addSettingsListener( loggerService );
 		// HighlightListener
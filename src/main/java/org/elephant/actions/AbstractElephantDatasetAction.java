@@ -56,6 +56,14 @@ public abstract class AbstractElephantDatasetAction extends AbstractElephantActi
 		return true;
 	}
 
+	/**
+	 * Called instead of {@link #processDataset()} if the dataset is not ready
+	 * after {@link #prepare()} succeeded, to release what it has prepared.
+	 */
+	void datasetNotReady()
+	{
+	}
+
 	@Override
 	void process()
 	{
@@ -64,6 +72,7 @@ public abstract class AbstractElephantDatasetAction extends AbstractElephantActi
 			final boolean isReady = ensureDataset();
 			if ( !isReady )
 			{
+				datasetNotReady();
 				try
 				{
 					SwingUtilities.invokeAndWait( () -> JOptionPane.showMessageDialog( null, "Dataset is not ready." ) );
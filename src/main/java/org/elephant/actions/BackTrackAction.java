@@ -267,16 +267,15 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 		getGraph().getLock().writeLock().lock();
 		try
 		{
-			final Spot spot = getGraph().vertices().stream().filter( s -> s.getInternalPoolIndex() == spotId ).findFirst().orElse( null );
+			final Spot spot = getVertexByPoolIndex( spotId, orgSpotRef );
 			if ( spot == null )
 			{
-				final String msg = "spot " + spot + " was not found";
+				final String msg = "spot " + spotId + " was not found";
 				getClientLogger().info( msg );
 				showTextOverlayAnimator( msg, 3000, TextPosition.CENTER );
 			}
 			else
 			{
-				orgSpotRef.refTo( spot );
 				final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
 				for ( int j = 0; j < 3; j++ )
 					pos[ j ] = jsonPositions.get( j ).asDouble();
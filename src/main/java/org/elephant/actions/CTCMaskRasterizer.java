@@ -0,0 +1,337 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.util.LinAlgHelpers;
+
+/**
+ * Rasterise spot ellipsoids into per-timepoint label images in the Cell
+ * Tracking Challenge layout ({@code maskTTT.tif}), without a server round trip.
+ * <p>
+ * Spots are registered with {@link #add} (not thread-safe, typically while
+ * holding the graph lock) and rasterised with {@link #write}, which processes
+ * the timepoints in parallel. Each timepoint is written slice by slice as an
+ * uncompressed multi-page TIFF, so only one slice per worker is kept in
+ * memory at a time. Labels are unsigned 16-bit, or 32-bit if a label does not
+ * fit in 16 bits.
+ * 
+ * @author Ko Sugawara
+ */
+public class CTCMaskRasterizer
+{
+
+	/**
+	 * Per spot: mean (3), precision (p00, p01, p02, p11, p12, p22) and the
+	 * half extents of the bounding box (3).
+	 */
+	private static final int PARAMS_PER_SPOT = 12;
+
+	private static final int IFD_ENTRIES = 10;
+
+	private static final int IFD_SIZE = 2 + IFD_ENTRIES * 12 + 4;
+
+	private static final long MAX_TIFF_SIZE = 0xFFFFFFFFL;
+
+	private final int width;
+
+	private final int height;
+
+	private final int depth;
+
+	private final double[] voxelSize;
+
+	private final boolean is2D;
+
+	private final int timepointStart;
+
+	private final int timepointEnd;
+
+	private final TIntArrayList[] labels;
+
+	private final TDoubleArrayList[] params;
+
+	private final double[][] precision = new double[ 3 ][ 3 ];
+
+	private int maxLabel;
+
+	/**
+	 * @param dimensions
+	 *            the image dimensions in voxels (x, y, z).
+	 * @param voxelSize
+	 *            the voxel size (x, y, z) in the unit of the spot coordinates.
+	 * @param is2D
+	 *            if true, only the first slice is written and the ellipsoids
+	 *            are projected onto the xy plane.
+	 * @param timepointStart
+	 *            the first timepoint to write.
+	 * @param timepointEnd
+	 *            the last timepoint to write (inclusive).
+	 */
+	public CTCMaskRasterizer( final long[] dimensions, final double[] voxelSize, final boolean is2D,
+			final int timepointStart, final int timepointEnd )
+	{
+		this.width = ( int ) dimensions[ 0 ];
+		this.height = ( int ) dimensions[ 1 ];
+		this.depth = is2D ? 1 : ( int ) dimensions[ 2 ];
+		this.voxelSize = voxelSize.clone();
+		this.is2D = is2D;
+		this.timepointStart = timepointStart;
+		this.timepointEnd = timepointEnd;
+		final int nTimepoints = timepointEnd - timepointStart + 1;
+		labels = new TIntArrayList[ nTimepoints ];
+		params = new TDoubleArrayList[ nTimepoints ];
+		for ( int i = 0; i < nTimepoints; i++ )
+		{
+			labels[ i ] = new TIntArrayList();
+			params[ i ] = new TDoubleArrayList();
+		}
+	}
+
+	/**
+	 * Register a spot. Spots outside the timepoint range or with a singular
+	 * covariance are ignored. Later spots overwrite earlier ones where they
+	 * overlap.
+	 */
+	public void add( final int timepoint, final int label, final double[] pos, final double[][] cov )
+	{
+		if ( timepoint < timepointStart || timepointEnd < timepoint )
+			return;
+		if ( is2D )
+		{
+			final double det = cov[ 0 ][ 0 ] * cov[ 1 ][ 1 ] - cov[ 0 ][ 1 ] * cov[ 1 ][ 0 ];
+			if ( !( 0 < det ) )
+				return;
+			precision[ 0 ][ 0 ] = cov[ 1 ][ 1 ] / det;
+			precision[ 0 ][ 1 ] = -cov[ 0 ][ 1 ] / det;
+			precision[ 1 ][ 1 ] = cov[ 0 ][ 0 ] / det;
+			precision[ 0 ][ 2 ] = precision[ 1 ][ 2 ] = precision[ 2 ][ 2 ] = 0;
+		}
+		else
+		{
+			LinAlgHelpers.invertSymmetric3x3( cov, precision );
+			for ( int i = 0; i < 3; i++ )
+				for ( int j = i; j < 3; j++ )
+					if ( !Double.isFinite( precision[ i ][ j ] ) )
+						return;
+		}
+		final TDoubleArrayList p = params[ timepoint - timepointStart ];
+		p.add( pos[ 0 ] );
+		p.add( pos[ 1 ] );
+		p.add( is2D ? 0 : pos[ 2 ] );
+		p.add( precision[ 0 ][ 0 ] );
+		p.add( precision[ 0 ][ 1 ] );
+		p.add( precision[ 0 ][ 2 ] );
+		p.add( precision[ 1 ][ 1 ] );
+		p.add( precision[ 1 ][ 2 ] );
+		p.add( precision[ 2 ][ 2 ] );
+		for ( int d = 0; d < 3; d++ )
+			p.add( is2D && d == 2 ? 0 : Math.sqrt( cov[ d ][ d ] ) );
+		labels[ timepoint - timepointStart ].add( label );
+		maxLabel = Math.max( maxLabel, label );
+	}
+
+	/**
+	 * Write {@code maskTTT.tif} for each timepoint in the range, in parallel.
+	 * Timepoints without spots are written as empty masks. The timepoints are
+	 * interleaved over the workers, and each worker reuses one slice buffer
+	 * for all of its timepoints.
+	 */
+	public void write( final File dir ) throws IOException
+	{
+		final int bytesPerLabel = maxLabel <= 0xFFFF ? 2 : 4;
+		final long sliceBytes = ( long ) width * height * bytesPerLabel;
+		if ( Integer.MAX_VALUE < sliceBytes )
+			throw new IOException( "A slice of the mask is too large to be written" );
+		if ( MAX_TIFF_SIZE < 8 + ( sliceBytes + IFD_SIZE ) * depth )
+			throw new IOException( "The mask is too large to be written as a TIFF file" );
+		final String format = timepointEnd < 1000 ? "mask%03d.tif" : "mask%04d.tif";
+		final int nTimepoints = timepointEnd - timepointStart + 1;
+		final int nWorkers = Math.max( 1, Math.min( nTimepoints, ForkJoinPool.getCommonPoolParallelism() ) );
+		try
+		{
+			IntStream.range( 0, nWorkers ).parallel().forEach( worker -> {
+				final int[] slice = new int[ width * height ];
+				final ByteBuffer sliceBuffer = ByteBuffer.allocate( ( int ) sliceBytes ).order( ByteOrder.LITTLE_ENDIAN );
+				final ByteBuffer ifdBuffer = ByteBuffer.allocate( IFD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+				for ( int index = worker; index < nTimepoints; index += nWorkers )
+				{
+					final File file = new File( dir, String.format( format, timepointStart + index ) );
+					try
+					{
+						writeTimepoint( file, index, bytesPerLabel, slice, sliceBuffer, ifdBuffer );
+					}
+					catch ( final IOException e )
+					{
+						throw new UncheckedIOException( e );
+					}
+				}
+			} );
+		}
+		catch ( final UncheckedIOException e )
+		{
+			throw e.getCause();
+		}
+	}
+
+	private void writeTimepoint( final File file, final int index, final int bytesPerLabel, final int[] slice,
+			final ByteBuffer sliceBuffer, final ByteBuffer ifdBuffer ) throws IOException
+	{
+		final TIntArrayList spotLabels = labels[ index ];
+		final TDoubleArrayList spotParams = params[ index ];
+		final int sliceBytes = sliceBuffer.capacity();
+		try (final FileChannel channel = FileChannel.open( file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+		{
+			final ByteBuffer header = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+			header.put( ( byte ) 'I' ).put( ( byte ) 'I' ).putShort( ( short ) 42 ).putInt( 8 + sliceBytes );
+			header.flip();
+			writeFully( channel, header );
+			long offset = 8;
+			for ( int z = 0; z < depth; z++ )
+			{
+				Arrays.fill( slice, 0 );
+				rasterizeSlice( z, spotLabels, spotParams, slice );
+				sliceBuffer.clear();
+				for ( int i = 0; i < slice.length; i++ )
+				{
+					if ( bytesPerLabel == 2 )
+						sliceBuffer.putShort( ( short ) slice[ i ] );
+					else
+						sliceBuffer.putInt( slice[ i ] );
+				}
+				sliceBuffer.flip();
+				writeFully( channel, sliceBuffer );
+				final long dataOffset = offset;
+				offset += sliceBytes;
+				final long nextIfdOffset = z < depth - 1 ? offset + IFD_SIZE + sliceBytes : 0;
+				fillIfd( ifdBuffer, dataOffset, sliceBytes, bytesPerLabel, nextIfdOffset );
+				writeFully( channel, ifdBuffer );
+				offset += IFD_SIZE;
+			}
+		}
+	}
+
+	/**
+	 * Fill the slice with the labels of the ellipsoids that intersect it. For
+	 * each row, the extent of an ellipsoid along x is solved analytically from
+	 * its quadratic form, so only voxels inside are visited.
+	 */
+	private void rasterizeSlice( final int z, final TIntArrayList spotLabels, final TDoubleArrayList spotParams,
+			final int[] slice )
+	{
+		final double zc = z * voxelSize[ 2 ];
+		for ( int s = 0; s < spotLabels.size(); s++ )
+		{
+			final int o = s * PARAMS_PER_SPOT;
+			final double dz = is2D ? 0 : zc - spotParams.getQuick( o + 2 );
+			if ( spotParams.getQuick( o + 11 ) < Math.abs( dz ) )
+				continue;
+			final double mx = spotParams.getQuick( o );
+			final double my = spotParams.getQuick( o + 1 );
+			final double p00 = spotParams.getQuick( o + 3 );
+			final double p01 = spotParams.getQuick( o + 4 );
+			final double p02 = spotParams.getQuick( o + 5 );
+			final double p11 = spotParams.getQuick( o + 6 );
+			final double p12 = spotParams.getQuick( o + 7 );
+			final double p22 = spotParams.getQuick( o + 8 );
+			final double ry = spotParams.getQuick( o + 10 );
+			final int label = spotLabels.getQuick( s );
+			final int yMin = Math.max( 0, ( int ) Math.ceil( ( my - ry ) / voxelSize[ 1 ] ) );
+			final int yMax = Math.min( height - 1, ( int ) Math.floor( ( my + ry ) / voxelSize[ 1 ] ) );
+			for ( int y = yMin; y <= yMax; y++ )
+			{
+				final double dy = y * voxelSize[ 1 ] - my;
+				// p00 dx^2 + b dx + c <= 0
+				final double b = 2 * ( p01 * dy + p02 * dz );
+				final double c = p11 * dy * dy + 2 * p12 * dy * dz + p22 * dz * dz - 1;
+				final double discriminant = b * b - 4 * p00 * c;
+				if ( discriminant < 0 )
+					continue;
+				final double sqrtDiscriminant = Math.sqrt( discriminant );
+				final double x0 = mx + ( -b - sqrtDiscriminant ) / ( 2 * p00 );
+				final double x1 = mx + ( -b + sqrtDiscriminant ) / ( 2 * p00 );
+				final int xMin = Math.max( 0, ( int ) Math.ceil( x0 / voxelSize[ 0 ] ) );
+				final int xMax = Math.min( width - 1, ( int ) Math.floor( x1 / voxelSize[ 0 ] ) );
+				final int rowOffset = y * width;
+				for ( int x = xMin; x <= xMax; x++ )
+					slice[ rowOffset + x ] = label;
+			}
+		}
+	}
+
+	private void fillIfd( final ByteBuffer buffer, final long dataOffset, final int dataBytes, final int bytesPerLabel,
+			final long nextIfdOffset )
+	{
+		buffer.clear();
+		buffer.putShort( ( short ) IFD_ENTRIES );
+		putEntry( buffer, 256, width ); // ImageWidth
+		putEntry( buffer, 257, height ); // ImageLength
+		putShortEntry( buffer, 258, bytesPerLabel * 8 ); // BitsPerSample
+		putShortEntry( buffer, 259, 1 ); // Compression: none
+		putShortEntry( buffer, 262, 1 ); // PhotometricInterpretation: BlackIsZero
+		putEntry( buffer, 273, dataOffset ); // StripOffsets
+		putShortEntry( buffer, 277, 1 ); // SamplesPerPixel
+		putEntry( buffer, 278, height ); // RowsPerStrip
+		putEntry( buffer, 279, dataBytes ); // StripByteCounts
+		putShortEntry( buffer, 339, 1 ); // SampleFormat: unsigned integer
+		buffer.putInt( ( int ) nextIfdOffset );
+		buffer.flip();
+	}
+
+	private static void putEntry( final ByteBuffer buffer, final int tag, final long value )
+	{
+		buffer.putShort( ( short ) tag ).putShort( ( short ) 4 ).putInt( 1 ).putInt( ( int ) value );
+	}
+
+	private static void putShortEntry( final ByteBuffer buffer, final int tag, final int value )
+	{
+		buffer.putShort( ( short ) tag ).putShort( ( short ) 3 ).putInt( 1 ).putShort( ( short ) value ).putShort( ( short ) 0 );
+	}
+
+	private static void writeFully( final FileChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+}
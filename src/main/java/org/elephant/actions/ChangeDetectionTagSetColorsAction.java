@@ -143,15 +143,7 @@ public class ChangeDetectionTagSetColorsAction extends AbstractElephantAction im
 			{
 				tag.setColor( colorMap.get( tag.label() ).getRGB() );
 			}
-			getTagSetModel().pauseListeners();
-			try
-			{
-				getTagSetModel().setTagSetStructure( tssCopy );
-			}
-			finally
-			{
-				getTagSetModel().resumeListeners();
-			}
+			setTagSetStructure( tssCopy );
 		}
 	}
 
@@ -44,7 +44,6 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefList;
-import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
@@ -200,14 +199,16 @@ public class CountDivisionsAction extends AbstractElephantAction
 						for ( int j = 0; j < counts[ 0 ].length; j++ )
 							counts[ i ][ j ] = -1;
 					final Spot ref = getGraph().vertexRef();
+					final LineageWalker walker = new LineageWalker( getGraph() );
 					final String[] labels = new String[ rootSpots.size() + 1 ];
 					labels[ 0 ] = "Timepoint";
 					for ( int i = 0; i < rootSpots.size(); i++ )
 					{
 						rootSpots.get( i, ref );
 						labels[ i + 1 ] = ref.getLabel();
-						countDivisions( ref, counts, i );
+						countDivisions( walker, ref, counts, i );
 					}
+					walker.release();
 					getGraph().releaseRef( ref );
 					for ( final Spot spot : spots )
 					{
@@ -250,16 +251,15 @@ public class CountDivisionsAction extends AbstractElephantAction
 		}
 	}
 
-	private void countDivisions( Spot spot, int[][] counts, int trackIndex )
+	private void countDivisions( final LineageWalker walker, final Spot root, final int[][] counts, final int trackIndex )
 	{
-		counts[ spot.getTimepoint() ][ trackIndex ] = Math.max( 0, counts[ spot.getTimepoint() ][ trackIndex ] );
-		final RefList< Link > outgoingEdges = RefCollections.createRefList( getGraph().edges() );
-		for ( final Link edge : spot.outgoingEdges() )
-			outgoingEdges.add( edge );
-		if ( outgoingEdges.size() == 2 )
-			counts[ spot.getTimepoint() ][ trackIndex ]++;
-		for ( final Link edge : outgoingEdges )
-			countDivisions( edge.getTarget( spot ), counts, trackIndex );
+		walker.walk( root, 0, ( spot, state ) -> {
+			final int[] countsAtTimepoint = counts[ spot.getTimepoint() ];
+			countsAtTimepoint[ trackIndex ] = Math.max( 0, countsAtTimepoint[ trackIndex ] );
+			if ( spot.outgoingEdges().size() == 2 )
+				countsAtTimepoint[ trackIndex ]++;
+			return state;
+		} );
 	}
 
 }
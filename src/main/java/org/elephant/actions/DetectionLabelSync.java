@@ -0,0 +1,310 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure.Tag;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * The detection labels last synchronised with the server, used to send only
+ * the changes on the next update.
+ * <p>
+ * Removed spots are reported by {@link GraphListenerService}. Additions and
+ * changes of tag, position or covariance are found by comparing the labelled
+ * spots with the synchronised state, because Mastodon tells neither which
+ * spots a tag change affected nor when a covariance changed. The comparison is
+ * local and cheap compared with serialising and sending every spot.
+ * <p>
+ * Each successful update gets a version from the server. A delta is built
+ * against the current version, and the server rejects it if its version
+ * differs, e.g. after the labels were reset, in which case everything is
+ * sent again. Only one update is in flight at a time (see
+ * {@link #startUpdate()}), so that each delta is built against the version
+ * that the previous one produced.
+ * 
+ * @author Ko Sugawara
+ */
+public class DetectionLabelSync
+{
+
+	private static final Map< Model, DetectionLabelSync > INSTANCES = new WeakHashMap<>();
+
+	private String datasetName;
+
+	private int version;
+
+	private final TIntObjectMap< SpotState > synced = new TIntObjectHashMap<>();
+
+	private final TIntSet removed = new TIntHashSet();
+
+	private final double[] pos = new double[ 3 ];
+
+	private final double[][] cov = new double[ 3 ][ 3 ];
+
+	private boolean isUpdateInFlight;
+
+	private boolean isUpdateQueued;
+
+	/**
+	 * Get the synchronisation state for the model, creating it if needed.
+	 */
+	public static DetectionLabelSync of( final Model model )
+	{
+		synchronized ( INSTANCES )
+		{
+			return INSTANCES.computeIfAbsent( model, m -> new DetectionLabelSync() );
+		}
+	}
+
+	/**
+	 * Forget the synchronised state, so that the next update sends everything.
+	 */
+	public synchronized void reset()
+	{
+		version = 0;
+		synced.clear();
+		removed.clear();
+	}
+
+	/**
+	 * Start an update unless another one is in flight, in which case the
+	 * update is queued and sent when the one in flight has finished.
+	 * 
+	 * @return true if the caller should send the update now.
+	 */
+	public synchronized boolean startUpdate()
+	{
+		if ( isUpdateInFlight )
+		{
+			isUpdateQueued = true;
+			return false;
+		}
+		isUpdateInFlight = true;
+		return true;
+	}
+
+	/**
+	 * Finish the update in flight.
+	 * 
+	 * @return true if an update has been queued meanwhile. It is then in
+	 *         flight and the caller should send it, with a delta that includes
+	 *         all the changes made while it was queued.
+	 */
+	public synchronized boolean finishUpdate()
+	{
+		if ( isUpdateQueued )
+		{
+			isUpdateQueued = false;
+			return true;
+		}
+		isUpdateInFlight = false;
+		return false;
+	}
+
+	public synchronized void spotRemoved( final Spot spot )
+	{
+		if ( synced.containsKey( spot.getInternalPoolIndex() ) )
+			removed.add( spot.getInternalPoolIndex() );
+	}
+
+	/**
+	 * Compare the labelled spots in the timepoint range with the synchronised
+	 * state. The caller must hold the read lock.
+	 * 
+	 * @param datasetName
+	 *            the dataset to synchronise. The state is reset if it differs
+	 *            from the last one.
+	 * @param spots
+	 *            the spots in the timepoint range.
+	 * @param tagMap
+	 *            the detection tag map.
+	 * @param filter
+	 *            accepts the spots with a label to synchronise.
+	 */
+	public synchronized Delta diff( final String datasetName, final Iterable< Spot > spots, final ObjTagMap< Spot, Tag > tagMap,
+			final Predicate< Spot > filter, final int timepointStart, final int timepointEnd )
+	{
+		if ( !Objects.equals( this.datasetName, datasetName ) )
+		{
+			reset();
+			this.datasetName = datasetName;
+		}
+		final Delta delta = new Delta( version );
+		final TIntSet present = new TIntHashSet();
+		for ( final Spot spot : spots )
+		{
+			if ( !filter.test( spot ) )
+				continue;
+			final int id = spot.getInternalPoolIndex();
+			present.add( id );
+			final SpotState state = stateOf( spot, tagMap.get( spot ) );
+			if ( removed.contains( id ) || !state.equals( synced.get( id ) ) )
+				delta.upserts.put( id, state );
+		}
+		// a removed spot whose pool index has been reused by a labelled spot is
+		// replaced by the upsert, so that the server need not order the two
+		removed.forEach( id -> {
+			if ( !delta.upserts.containsKey( id ) )
+				delta.deletions.add( id );
+			return true;
+		} );
+		synced.forEachEntry( ( id, state ) -> {
+			if ( timepointStart <= state.timepoint && state.timepoint <= timepointEnd && !present.contains( id ) )
+				delta.deletions.add( id );
+			return true;
+		} );
+		return delta;
+	}
+
+	/**
+	 * Record a delta as synchronised.
+	 * 
+	 * @param delta
+	 *            a delta accepted by the server.
+	 * @param newVersion
+	 *            the version reported by the server.
+	 */
+	public synchronized void commit( final Delta delta, final int newVersion )
+	{
+		if ( delta.baseVersion != version )
+			return;
+		delta.deletions.forEach( id -> {
+			synced.remove( id );
+			removed.remove( id );
+			return true;
+		} );
+		delta.upserts.forEachKey( id -> {
+			removed.remove( id );
+			return true;
+		} );
+		synced.putAll( delta.upserts );
+		version = newVersion;
+	}
+
+	private SpotState stateOf( final Spot spot, final Tag tag )
+	{
+		spot.localize( pos );
+		spot.getCovariance( cov );
+		final double[] values = new double[ 12 ];
+		System.arraycopy( pos, 0, values, 0, 3 );
+		for ( int i = 0; i < 3; i++ )
+			System.arraycopy( cov[ i ], 0, values, 3 + i * 3, 3 );
+		return new SpotState( spot.getTimepoint(), tag, values );
+	}
+
+	/**
+	 * The changes since the last synchronisation.
+	 */
+	public static class Delta
+	{
+		private final int baseVersion;
+
+		private final TIntObjectMap< SpotState > upserts = new TIntObjectHashMap<>();
+
+		private final TIntSet deletions = new TIntHashSet();
+
+		private Delta( final int baseVersion )
+		{
+			this.baseVersion = baseVersion;
+		}
+
+		/**
+		 * @return the version the delta is based on, 0 if nothing has been
+		 *         synchronised.
+		 */
+		public int getBaseVersion()
+		{
+			return baseVersion;
+		}
+
+		/**
+		 * @return true if the spot is added or modified.
+		 */
+		public boolean isUpserted( final Spot spot )
+		{
+			return upserts.containsKey( spot.getInternalPoolIndex() );
+		}
+
+		public int[] getDeletions()
+		{
+			return deletions.toArray();
+		}
+
+		public int numberOfUpserts()
+		{
+			return upserts.size();
+		}
+	}
+
+	private static class SpotState
+	{
+		private final int timepoint;
+
+		private final Tag tag;
+
+		private final double[] values;
+
+		private SpotState( final int timepoint, final Tag tag, final double[] values )
+		{
+			this.timepoint = timepoint;
+			this.tag = tag;
+			this.values = values;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof SpotState ) )
+				return false;
+			final SpotState other = ( SpotState ) obj;
+			return timepoint == other.timepoint && tag == other.tag && Arrays.equals( values, other.values );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * timepoint + Arrays.hashCode( values );
+		}
+	}
+
+}
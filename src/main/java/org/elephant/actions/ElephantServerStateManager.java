@@ -31,6 +31,8 @@ package org.elephant.actions;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.elephant.actions.ElephantStatusService.ElephantStatus;
 
@@ -57,8 +59,31 @@ public enum ElephantServerStateManager
 
 	private String rabbitMQErrorMessage = NO_ERROR_MESSAGE;
 
+	private String rabbitMQPredictionQueue;
+
 	private List< GPU > gpus = new ArrayList<>();
 
+	private boolean isBinarySpotsSupported = false;
+
+	private boolean isFlowStreamSupported = true;
+
+	/**
+	 * The server URL that does not support the CTC stream endpoint, or null.
+	 */
+	private String ctcStreamUnsupportedURL;
+
+	private boolean isChunkDedupSupported = true;
+
+	private boolean isRequestCompressionSupported = false;
+
+	private boolean isDeltaLabelSyncSupported = true;
+
+	private final AtomicLong uncompressedRequestBytes = new AtomicLong();
+
+	private final AtomicLong compressedRequestBytes = new AtomicLong();
+
+	private final AtomicInteger activeRequests = new AtomicInteger();
+
 	public synchronized ElephantStatus getElephantServerStatus()
 	{
 		return elephantServerStatus;
@@ -115,4 +140,121 @@ public enum ElephantServerStateManager
 		this.rabbitMQErrorMessage = message;
 	}
 
+	/**
+	 * @return the name of the exclusive queue that receives the partial
+	 *         prediction results for this client, or null if there is none.
+	 */
+	public synchronized String getRabbitMQPredictionQueue()
+	{
+		return rabbitMQPredictionQueue;
+	}
+
+	public synchronized void setRabbitMQPredictionQueue( final String rabbitMQPredictionQueue )
+	{
+		this.rabbitMQPredictionQueue = rabbitMQPredictionQueue;
+	}
+
+	public synchronized boolean isBinarySpotsSupported()
+	{
+		return isBinarySpotsSupported;
+	}
+
+	public synchronized void setBinarySpotsSupported( final boolean isBinarySpotsSupported )
+	{
+		this.isBinarySpotsSupported = isBinarySpotsSupported;
+	}
+
+	public synchronized boolean isFlowStreamSupported()
+	{
+		return isFlowStreamSupported;
+	}
+
+	public synchronized void setFlowStreamSupported( final boolean isFlowStreamSupported )
+	{
+		this.isFlowStreamSupported = isFlowStreamSupported;
+	}
+
+	public synchronized boolean isCtcStreamSupported( final String serverURL )
+	{
+		return !serverURL.equals( ctcStreamUnsupportedURL );
+	}
+
+	public synchronized void setCtcStreamUnsupported( final String serverURL )
+	{
+		ctcStreamUnsupportedURL = serverURL;
+	}
+
+	public synchronized boolean isChunkDedupSupported()
+	{
+		return isChunkDedupSupported;
+	}
+
+	public synchronized void setChunkDedupSupported( final boolean isChunkDedupSupported )
+	{
+		this.isChunkDedupSupported = isChunkDedupSupported;
+	}
+
+	/**
+	 * @return true if the server advertised gzip in the {@code Accept-Encoding}
+	 *         header of a response, i.e. it accepts gzip request bodies.
+	 */
+	public synchronized boolean isRequestCompressionSupported()
+	{
+		return isRequestCompressionSupported;
+	}
+
+	public synchronized void setRequestCompressionSupported( final boolean isRequestCompressionSupported )
+	{
+		this.isRequestCompressionSupported = isRequestCompressionSupported;
+	}
+
+	public synchronized boolean isDeltaLabelSyncSupported()
+	{
+		return isDeltaLabelSyncSupported;
+	}
+
+	public synchronized void setDeltaLabelSyncSupported( final boolean isDeltaLabelSyncSupported )
+	{
+		this.isDeltaLabelSyncSupported = isDeltaLabelSyncSupported;
+	}
+
+	public void requestStarted()
+	{
+		activeRequests.incrementAndGet();
+	}
+
+	public void requestFinished()
+	{
+		activeRequests.decrementAndGet();
+	}
+
+	/**
+	 * Get the number of requests to the ELEPHANT server that have not been
+	 * completed yet.
+	 */
+	public int getActiveRequests()
+	{
+		return activeRequests.get();
+	}
+
+	/**
+	 * Count the size of a compressed request body before and after
+	 * compression.
+	 */
+	public void addCompressedRequestBytes( final long uncompressedBytes, final long compressedBytes )
+	{
+		uncompressedRequestBytes.addAndGet( uncompressedBytes );
+		compressedRequestBytes.addAndGet( compressedBytes );
+	}
+
+	public long getUncompressedRequestBytes()
+	{
+		return uncompressedRequestBytes.get();
+	}
+
+	public long getCompressedRequestBytes()
+	{
+		return compressedRequestBytes.get();
+	}
+
 }
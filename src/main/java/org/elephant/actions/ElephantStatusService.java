@@ -28,13 +28,10 @@
  */
 package org.elephant.actions;
 
-import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.Socket;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -45,20 +42,35 @@ import org.elephant.actions.mixins.URLMixin;
 import org.scijava.listeners.Listeners;
 
 import com.eclipsesource.json.Json;
-import com.eclipsesource.json.JsonArray;
-import com.eclipsesource.json.JsonObject;
-import com.eclipsesource.json.JsonValue;
 
 import kong.unirest.HttpResponse;
-import kong.unirest.Unirest;
 import kong.unirest.UnirestException;
 
 public class ElephantStatusService extends AbstractElephantService
-		implements ElephantConstantsMixin, ElephantStateManagerMixin, URLMixin
+		implements ElephantConstantsMixin, ElephantStateManagerMixin, URLMixin, RabbitMQServerStatusListener
 {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final long MIN_POLLING_INTERVAL = 1000;
+
+	private static final long MAX_POLLING_INTERVAL = 16000;
+
+	/**
+	 * The server is polled over HTTP at the usual intervals if it has not
+	 * pushed its status over RabbitMQ for this long.
+	 */
+	private static final long STATUS_PUSH_TIMEOUT = 30000;
+
+	private volatile long lastStatusPushMillis;
+
+	/**
+	 * The status from the last HTTP probe. A pushed status only tells that the
+	 * server can reach the RabbitMQ broker, not that its HTTP endpoint is
+	 * reachable from here.
+	 */
+	private volatile ElephantStatus probedStatus = ElephantStatus.UNAVAILABLE;
+
 	private final Listeners.List< ElephantServerStatusListener > elephantServerStatusListeners;
 
 	public ElephantStatusService()
@@ -69,112 +81,135 @@ public class ElephantStatusService extends AbstractElephantService
 	public void start()
 	{
 		new Thread( () -> {
+			long interval = MIN_POLLING_INTERVAL;
+			ElephantStatus lastStatus = null;
+			String lastErrorMessage = null;
 			while ( true )
 			{
 				ElephantStatus serverStatus = ElephantStatus.UNAVAILABLE;
 				final List< GPU > gpus = new ArrayList<>();
+				final String serverUrl = getServerSettings().getServerURL();
 				try
 				{
-					if ( isAvailable( getServerSettings().getServerURL() ) )
+					final HttpResponse< String > response = UnirestService.getInstance( UnirestService.Pool.STATUS )
+							.get( getEndpointURL( ENDPOINT_STATE_GPUS ) ).asString();
+					getServerStateManager().setRequestCompressionSupported(
+							RequestCompression.isAccepted( response.getHeaders().getFirst( "Accept-Encoding" ) ) );
+					if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 					{
-						try
+						gpus.addAll( GPU.fromJson( Json.parse( response.getBody() ).asArray() ) );
+						serverStatus = ElephantStatus.AVAILABLE;
+						getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.NO_ERROR_MESSAGE );
+					}
+					else
+					{
+						if ( response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
 						{
-							final HttpResponse< String > response = Unirest.get( getEndpointURL( ENDPOINT_STATE_GPUS ) ).asString();
-							if ( response.getStatus() == HttpURLConnection.HTTP_OK )
-							{
-								final String body = response.getBody();
-								final JsonArray jsonGpus = Json.parse( body ).asArray();
-								for ( final JsonValue jsonValue : jsonGpus )
-								{
-									final JsonObject jsonGpu = jsonValue.asObject();
-									final String id = jsonGpu.get( "id" ).asString();
-									final String name = jsonGpu.get( "name" ).asString();
-									final float totalMemory = jsonGpu.get( "mem_total" ).asFloat();
-									final float usedMemory = jsonGpu.get( "mem_used" ).asFloat();
-									gpus.add( new GPU( id, name, totalMemory, usedMemory ) );
-								}
-								serverStatus = ElephantStatus.AVAILABLE;
-								getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.NO_ERROR_MESSAGE );
-							}
-							else
-							{
-								if ( response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
-								{
-									serverStatus = ElephantStatus.WARNING;
-									getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.OUTDATED_MESSAGE );
-								}
-								else
-								{
-									final StringBuilder sb = new StringBuilder( String.valueOf( response.getStatus() ) );
-									sb.append( " " );
-									sb.append( response.getStatusText() );
-									if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
-									{
-										sb.append( ": " );
-										sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
-										getClientLogger().severe( sb.toString() ); // Do not log other errors
-									}
-									getServerStateManager().setElephantServerErrorMessage( sb.toString() );
-								}
-							}
+							serverStatus = ElephantStatus.WARNING;
+							getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.OUTDATED_MESSAGE );
 						}
-						catch ( final UnirestException e )
+						else
 						{
-							getServerStateManager().setElephantServerErrorMessage( e.getMessage() );
+							final StringBuilder sb = new StringBuilder( String.valueOf( response.getStatus() ) );
+							sb.append( " " );
+							sb.append( response.getStatusText() );
+							if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
+							{
+								sb.append( ": " );
+								sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
+								getClientLogger().severe( sb.toString() ); // Do not log other errors
+							}
+							getServerStateManager().setElephantServerErrorMessage( sb.toString() );
 						}
 					}
-					else
-					{
-						getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.SERVER_NOT_FOUND_MESSAGE );
-					}
-				}
-				catch ( final MalformedURLException e )
-				{
-					getServerStateManager().setElephantServerErrorMessage( e.getMessage() );
 				}
-				catch ( final URISyntaxException e )
+				catch ( final UnirestException e )
 				{
-					getServerStateManager().setElephantServerErrorMessage( e.getMessage() );
+					// the request itself tells if the server is reachable
+					getServerStateManager().setElephantServerErrorMessage(
+							isUnreachable( e.getCause() ) ? ElephantServerStateManager.SERVER_NOT_FOUND_MESSAGE : e.getMessage() );
 				}
+				probedStatus = serverStatus;
 				getServerStateManager().setElephantServerStatus( serverStatus );
 				getServerStateManager().setGpus( gpus );
 				elephantServerStatusListeners.list.forEach( l -> l.serverStatusUpdated() );
-				try
-				{
-					Thread.sleep( 1000 );
-				}
-				catch ( final InterruptedException e )
+				final String errorMessage = getServerStateManager().getElephantServerErrorMessage();
+				if ( serverStatus != lastStatus || !errorMessage.equals( lastErrorMessage ) )
+					interval = MIN_POLLING_INTERVAL;
+				else if ( isStatusPushed() )
+					// the pushed status is fresh, so only probe the HTTP endpoint
+					interval = MAX_POLLING_INTERVAL;
+				else if ( isBusy() )
+					interval = MIN_POLLING_INTERVAL;
+				else
+					interval = Math.min( interval * 2, MAX_POLLING_INTERVAL );
+				lastStatus = serverStatus;
+				lastErrorMessage = errorMessage;
+				// poll again as soon as a job starts without pushed status or
+				// the server URL changes
+				for ( long waited = 0; waited < interval; waited += MIN_POLLING_INTERVAL )
 				{
-					getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+					sleepQuietly( MIN_POLLING_INTERVAL );
+					if ( ( isBusy() && !isStatusPushed() ) || !serverUrl.equals( getServerSettings().getServerURL() ) )
+						break;
 				}
 			}
 		} ).start();
 	}
 
-	public static boolean isAvailable( final String serverUrlString ) throws MalformedURLException, URISyntaxException
+	private void sleepQuietly( final long millis )
 	{
-		final URL serverUrl = new URI( serverUrlString ).toURL();
-		int port = serverUrl.getPort();
-		if ( port == -1 )
+		try
 		{
-			if ( "http".equalsIgnoreCase( serverUrl.getProtocol() ) )
-			{
-				port = 80;
-			}
-			else if ( "https".equalsIgnoreCase( serverUrl.getProtocol() ) )
-			{
-				port = 443;
-			}
+			Thread.sleep( millis );
 		}
-		try ( final Socket s = new Socket( serverUrl.getHost(), port ) )
+		catch ( final InterruptedException e )
 		{
-			return true;
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
 		}
-		catch ( final IOException ex )
+	}
+
+	/**
+	 * The server pushes its status to the "status" exchange when it changes
+	 * and periodically otherwise. While it does, the HTTP endpoint is only
+	 * probed at {@link #MAX_POLLING_INTERVAL}, and after a server URL change.
+	 * HTTP polling takes over while RabbitMQ is down or the server does not
+	 * push its status.
+	 */
+	private boolean isStatusPushed()
+	{
+		return getServerStateManager().getRabbitMQStatus() == ElephantStatus.AVAILABLE
+				&& System.currentTimeMillis() - lastStatusPushMillis < STATUS_PUSH_TIMEOUT;
+	}
+
+	@Override
+	public void serverStatusPushed( final List< GPU > gpus )
+	{
+		lastStatusPushMillis = System.currentTimeMillis();
+		// the status from the HTTP probe is kept until the endpoint is reachable
+		if ( probedStatus == ElephantStatus.AVAILABLE )
 		{
-			/* ignore */
+			getServerStateManager().setElephantServerStatus( ElephantStatus.AVAILABLE );
+			getServerStateManager().setElephantServerErrorMessage( ElephantServerStateManager.NO_ERROR_MESSAGE );
 		}
-		return false;
+		getServerStateManager().setGpus( gpus );
+		elephantServerStatusListeners.list.forEach( l -> l.serverStatusUpdated() );
+	}
+
+	/**
+	 * The server state is polled at the shortest interval while a request is
+	 * running or the live mode is on.
+	 */
+	private boolean isBusy()
+	{
+		return getServerStateManager().getActiveRequests() > 0 || getActionStateManager().isLivemode();
+	}
+
+	private static boolean isUnreachable( final Throwable cause )
+	{
+		return cause instanceof SocketException
+				|| cause instanceof UnknownHostException
+				|| cause instanceof InterruptedIOException;
 	}
 
 	public enum ElephantStatus
@@ -30,13 +30,14 @@
 package org.elephant.actions;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.net.HttpURLConnection;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
@@ -49,7 +50,6 @@ import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefList;
-import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
@@ -62,6 +62,8 @@ import com.opencsv.CSVWriter;
 
 import bdv.viewer.animate.TextOverlayAnimator;
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import kong.unirest.HttpResponse;
+import kong.unirest.UnirestException;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.model.FileHeader;
@@ -72,7 +74,8 @@ import net.lingala.zip4j.util.Zip4jUtil;
  * 
  * <p>
  * Only spots tagged with {@link STATUS_COMPLETED_TAG_NAME} and its links are
- * exported.
+ * exported. The masks are generated by the server, or on the client with
+ * {@link CTCMaskRasterizer} if the local export is enabled in the settings.
  *
  * @author Ko Sugawara
  */
@@ -105,6 +108,14 @@ public class ExportCTCAction extends AbstractElephantDatasetAction
 
 	private File dir;
 
+	private File spotsFile;
+
+	private boolean isFirstSpot;
+
+	private boolean isLocalExport;
+
+	private CTCMaskRasterizer rasterizer;
+
 	private JsonObject jsonRootObject;
 
 	@Override
@@ -135,6 +146,25 @@ public class ExportCTCAction extends AbstractElephantDatasetAction
 		}
 	}
 
+	/**
+	 * With the local export, the masks are rasterised on the client and the
+	 * server is not involved, so the dataset check is skipped.
+	 */
+	@Override
+	void process()
+	{
+		isLocalExport = getMainSettings().getUseLocalCtcExport();
+		if ( isLocalExport )
+		{
+			if ( prepare() )
+				exportMasksLocally();
+		}
+		else
+		{
+			super.process();
+		}
+	}
+
 	@Override
 	boolean prepare()
 	{
@@ -170,12 +200,45 @@ public class ExportCTCAction extends AbstractElephantDatasetAction
 			return false;
 		final ObjTagMap< Spot, Tag > tagMapStatus = getVertexTagMap( getStatusTagSet() );
 		final Tag statusCompletedTag = getTag( getStatusTagSet(), STATUS_COMPLETED_TAG_NAME );
-		final List< IdMapEntity > idMapList = new ArrayList<>();
-		final List< CTCTrackEntity > trackList = new ArrayList<>();
-		final JsonArray jsonSpots = Json.array();
+		spotsFile = null;
+		rasterizer = null;
+		if ( isLocalExport )
+		{
+			final long[] dimensions = new long[ 3 ];
+			getDimensions().dimensions( dimensions );
+			final double[] voxelSize = new double[ 3 ];
+			getVoxelDimensions().dimensions( voxelSize );
+			rasterizer = new CTCMaskRasterizer( dimensions, voxelSize, is2D(), timepointStart, timepointEnd );
+		}
+		else
+		{
+			try
+			{
+				spotsFile = File.createTempFile( "elephant-ctc-spots", ".json" );
+				spotsFile.deleteOnExit();
+			}
+			catch ( final IOException e )
+			{
+				getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+				return false;
+			}
+		}
+		// tracks, id map entries and spots are written out while walking the
+		// lineages instead of being collected in memory
 		getGraph().getLock().readLock().lock();
-		try
+		try (final CSVWriter resWriter = new CSVWriter(
+				Files.newBufferedWriter( Paths.get( dir.getAbsolutePath(), RES_FILENAME ) ),
+				' ', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END );
+				final CSVWriter idMapWriter = new CSVWriter(
+						Files.newBufferedWriter( Paths.get( dir.getAbsolutePath(), ID_MAP_FILENAME ) ),
+						CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER,
+						CSVWriter.DEFAULT_LINE_END );
+				final Writer spotsWriter = spotsFile == null ? null : Files.newBufferedWriter( spotsFile.toPath() ))
 		{
+			idMapWriter.writeNext( new String[] { "Original ID", "ID" } );
+			if ( spotsWriter != null )
+				spotsWriter.write( '[' );
+			isFirstSpot = true;
 			final PoolCollectionWrapper< Spot > spots = getGraph().vertices();
 			final RefList< Spot > rootSpots = RefCollections.createRefList( spots );
 			for ( final Spot spot : spots )
@@ -184,57 +247,32 @@ public class ExportCTCAction extends AbstractElephantDatasetAction
 					rootSpots.add( spot );
 			}
 			final Spot ref = getGraph().vertexRef();
-			for ( int i = 0; i < rootSpots.size(); i++ )
-			{
-				rootSpots.get( i, ref );
-				buildResult( ref, idMapList, trackList, UNSET, 0, jsonSpots );
-			}
-			getGraph().releaseRef( ref );
-		}
-		finally
-		{
-			getGraph().getLock().readLock().unlock();
-		}
-
-		final File file = Paths.get( dir.getAbsolutePath(), RES_FILENAME ).toFile();
-		try ( final FileWriter fileWriter = new FileWriter( file ) )
-		{
-			final CSVWriter writer = new CSVWriter( fileWriter, ' ', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER,
-					CSVWriter.DEFAULT_LINE_END );
+			final LineageWalker walker = new LineageWalker( getGraph() );
 			try
 			{
-				for ( int i = 0; i < trackList.size(); i++ )
-					writer.writeNext( trackList.get( i ).toCsvEntry() );
+				for ( int i = 0; i < rootSpots.size(); i++ )
+				{
+					rootSpots.get( i, ref );
+					buildResult( walker, ref, resWriter, idMapWriter, spotsWriter );
+				}
 			}
 			finally
 			{
-				writer.close();
+				walker.release();
+				getGraph().releaseRef( ref );
 			}
+			if ( spotsWriter != null )
+				spotsWriter.write( ']' );
 		}
-		catch ( final IOException e )
+		catch ( final IOException | UncheckedIOException e )
 		{
 			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			deleteSpotsFile();
+			return false;
 		}
-
-		final File idMapFile = Paths.get( dir.getAbsolutePath(), ID_MAP_FILENAME ).toFile();
-		try ( final FileWriter fileWriter = new FileWriter( idMapFile ) )
-		{
-			final CSVWriter writer = new CSVWriter( fileWriter, CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER,
-					CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END );
-			writer.writeNext( new String[] { "Original ID", "ID" } );
-			try
-			{
-				for ( int i = 0; i < idMapList.size(); i++ )
-					writer.writeNext( idMapList.get( i ).toCsvEntry() );
-			}
-			finally
-			{
-				writer.close();
-			}
-		}
-		catch ( final IOException e )
+		finally
 		{
-			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			getGraph().getLock().readLock().unlock();
 		}
 
 		final VoxelDimensions voxelSize = getVoxelDimensions();
@@ -245,149 +283,264 @@ public class ExportCTCAction extends AbstractElephantDatasetAction
 		jsonRootObject = Json.object()
 				.add( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
 				.add( JSON_KEY_SCALES, scales )
-				.add( JSON_KEY_SPOTS, jsonSpots )
 				.add( JSON_KEY_T_START, timepointStart )
 				.add( JSON_KEY_T_END, timepointEnd )
 				.add( JSON_KEY_IS_3D, !is2D() );
 		return true;
 	}
 
+	@Override
+	void datasetNotReady()
+	{
+		deleteSpotsFile();
+		rasterizer = null;
+	}
+
 	@Override
 	public void processDataset()
 	{
 		final String zipAbsolutePath = Paths.get( dir.getAbsolutePath(), RES_ZIPNAME ).toString();
+		final String serverURL = getServerSettings().getServerURL();
 		try
 		{
-			postAsFileAsync( getEndpointURL( ENDPOINT_DOWNLOAD_CTC ), jsonRootObject.toString(), zipAbsolutePath,
-					response -> {
-						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
-						{
-							try ( final ZipFile zipFile = new ZipFile( zipAbsolutePath ) )
+			if ( getServerStateManager().isCtcStreamSupported( serverURL ) )
+			{
+				postMultipartFormDataAsFileAsync( getEndpointURL( ENDPOINT_DOWNLOAD_CTC_STREAM ), spotsFile,
+						jsonRootObject.toString(), zipAbsolutePath,
+						response -> {
+							if ( response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
 							{
-								final List< FileHeader > fileHeaders = zipFile.getFileHeaders();
-								final long currentTime = System.currentTimeMillis();
-								fileHeaders.forEach(
-										header -> header.setLastModifiedTime( Zip4jUtil.epochToExtendedDosTime( currentTime ) ) );
-								zipFile.extractAll( dir.getAbsolutePath() );
+								getClientLogger().info( "The server does not support " + ENDPOINT_DOWNLOAD_CTC_STREAM
+										+ ", falling back to " + ENDPOINT_DOWNLOAD_CTC );
+								getServerStateManager().setCtcStreamUnsupported( serverURL );
+								try
+								{
+									// the 404 body has been written to the same path
+									Files.deleteIfExists( Paths.get( zipAbsolutePath ) );
+									postSpotsInBody( zipAbsolutePath );
+								}
+								catch ( final IOException e )
+								{
+									getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+									deleteSpotsFile();
+								}
+								catch ( final ElephantConnectException e )
+								{
+									// already handled by UnirestMixin
+									deleteSpotsFile();
+								}
 							}
-							catch ( final IOException e )
+							else
 							{
-								getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+								handleResponse( response, zipAbsolutePath );
 							}
-							showTextOverlayAnimator( "completed", 3000, TextOverlayAnimator.TextPosition.BOTTOM_RIGHT );
-						}
-						else if ( response.getStatus() == HttpURLConnection.HTTP_NO_CONTENT )
-						{
-							showTextOverlayAnimator( "cancelled", 3000, TextOverlayAnimator.TextPosition.BOTTOM_RIGHT );
-						}
-						else
-						{
-							final StringBuilder sb = new StringBuilder( response.getStatusText() );
-							showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
-							getClientLogger().severe( sb.toString() );
-						}
-						try
-						{
-							Files.deleteIfExists( Paths.get( zipAbsolutePath ) );
-						}
-						catch ( final IOException e )
-						{
-							getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
-						}
-					} );
+						},
+						this::handleFailure,
+						this::handleCancel );
+			}
+			else
+			{
+				postSpotsInBody( zipAbsolutePath );
+			}
 		}
 		catch ( final ElephantConnectException e )
 		{
 			// already handled by UnirestMixin
+			deleteSpotsFile();
 		}
 	}
 
-	private class CTCTrackEntity
+	/**
+	 * Post the spots as part of the JSON body, for servers without
+	 * {@link #ENDPOINT_DOWNLOAD_CTC_STREAM}. This reads the whole spot payload
+	 * back into memory.
+	 */
+	private void postSpotsInBody( final String zipAbsolutePath ) throws ElephantConnectException
 	{
-
-		private final int id;
-
-		private final int start;
-
-		private final int end;
-
-		private final int parent;
-
-		public CTCTrackEntity( final int id, final int start, final int end, final int parent )
+		final JsonObject jsonBody = new JsonObject( jsonRootObject );
+		try (final Reader reader = Files.newBufferedReader( spotsFile.toPath() ))
 		{
-			this.id = id;
-			this.start = start;
-			this.end = end;
-			this.parent = parent;
+			jsonBody.add( JSON_KEY_SPOTS, Json.parse( reader ) );
 		}
-
-		public String[] toCsvEntry()
+		catch ( final IOException e )
 		{
-			return new String[] {
-					Integer.toString( id ),
-					Integer.toString( start ),
-					Integer.toString( end ),
-					Integer.toString( parent )
-			};
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			deleteSpotsFile();
+			return;
 		}
+		postAsFileAsync( getEndpointURL( ENDPOINT_DOWNLOAD_CTC ), jsonBody.toString(), zipAbsolutePath,
+				response -> handleResponse( response, zipAbsolutePath ),
+				this::handleFailure,
+				this::handleCancel );
 	}
 
-	private class IdMapEntity
+	private void handleFailure( final UnirestException e )
 	{
-		private final int originalId;
+		handleRequestFailure( e );
+		deleteSpotsFile();
+	}
 
-		private final int id;
+	private void handleCancel()
+	{
+		getClientLogger().info( "The request has been cancelled" );
+		deleteSpotsFile();
+	}
 
-		public IdMapEntity( final int originalId, final int id )
+	private void handleResponse( final HttpResponse< File > response, final String zipAbsolutePath )
+	{
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+		{
+			try ( final ZipFile zipFile = new ZipFile( zipAbsolutePath ) )
+			{
+				final List< FileHeader > fileHeaders = zipFile.getFileHeaders();
+				final long currentTime = System.currentTimeMillis();
+				fileHeaders.forEach(
+						header -> header.setLastModifiedTime( Zip4jUtil.epochToExtendedDosTime( currentTime ) ) );
+				zipFile.extractAll( dir.getAbsolutePath() );
+			}
+			catch ( final IOException e )
+			{
+				getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			}
+			showTextOverlayAnimator( "completed", 3000, TextOverlayAnimator.TextPosition.BOTTOM_RIGHT );
+		}
+		else if ( response.getStatus() == HttpURLConnection.HTTP_NO_CONTENT )
 		{
-			this.originalId = originalId;
-			this.id = id;
+			showTextOverlayAnimator( "cancelled", 3000, TextOverlayAnimator.TextPosition.BOTTOM_RIGHT );
 		}
-
-		public String[] toCsvEntry()
+		else
+		{
+			final StringBuilder sb = new StringBuilder( response.getStatusText() );
+			showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+			getClientLogger().severe( sb.toString() );
+		}
+		try
+		{
+			Files.deleteIfExists( Paths.get( zipAbsolutePath ) );
+		}
+		catch ( final IOException e )
 		{
-			return new String[] {
-					Integer.toString( originalId ),
-					Integer.toString( id ),
-			};
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
 		}
+		deleteSpotsFile();
 	}
 
-	private void buildResult( Spot spot, List< IdMapEntity > idMapList, List< CTCTrackEntity > trackList, int start, int parent,
-			final JsonArray jsonSpots )
+	private void exportMasksLocally()
 	{
-		final RefList< Link > outgoingEdges = RefCollections.createRefList( getGraph().edges() );
-		for ( final Link edge : spot.outgoingEdges() )
-			outgoingEdges.add( edge );
-		if ( start == UNSET )
-			start = spot.getTimepoint();
-		// add json entry
-		spot.localize( pos );
-		spot.getCovariance( cov );
-		for ( int i = 0; i < 3; i++ )
-			for ( int j = 0; j < 3; j++ )
-				cov1d[ i * 3 + j ] = cov[ i ][ j ];
-		jsonSpots.add( Json.object()
-				.add( "t", spot.getTimepoint() )
-				.add( "pos", Json.array( pos ) )
-				.add( "covariance", Json.array( cov1d ) )
-				.add( "value", id ) );
-		idMapList.add( new IdMapEntity( getVertexId( spot ), id ) );
-		if ( outgoingEdges.size() == 0 )
+		try
+		{
+			rasterizer.write( dir );
+			showTextOverlayAnimator( "completed", 3000, TextOverlayAnimator.TextPosition.BOTTOM_RIGHT );
+		}
+		catch ( final IOException e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+		}
+		finally
 		{
-			trackList.add( new CTCTrackEntity( id, start, spot.getTimepoint(), parent ) );
-			id++;
+			rasterizer = null;
+		}
+	}
+
+	private void deleteSpotsFile()
+	{
+		if ( spotsFile == null )
 			return;
+		try
+		{
+			Files.deleteIfExists( spotsFile.toPath() );
 		}
-		if ( 1 < outgoingEdges.size() )
+		catch ( final IOException e )
 		{
-			trackList.add( new CTCTrackEntity( id, start, spot.getTimepoint(), parent ) );
-			parent = id;
-			id++;
-			start = UNSET;
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
 		}
-		for ( final Link edge : outgoingEdges )
-			buildResult( edge.getTarget( spot ), idMapList, trackList, start, parent, jsonSpots );
+	}
+
+	/**
+	 * The state passed along a track encodes the parent track id and whether
+	 * the next spot starts a new track.
+	 */
+	private static int newTrack( final int parent )
+	{
+		return parent * 2 + 1;
+	}
+
+	private static int continueTrack( final int parent )
+	{
+		return parent * 2;
+	}
+
+	private static boolean isNewTrack( final int state )
+	{
+		return ( state & 1 ) == 1;
+	}
+
+	private static int parentOf( final int state )
+	{
+		return state >> 1;
+	}
+
+	private void buildResult( final LineageWalker walker, final Spot root, final CSVWriter resWriter,
+			final CSVWriter idMapWriter, final Writer spotsWriter )
+	{
+		final int[] start = { UNSET };
+		walker.walk( root, newTrack( 0 ), ( spot, state ) -> {
+			if ( isNewTrack( state ) )
+				start[ 0 ] = spot.getTimepoint();
+			final int parent = parentOf( state );
+			// add json entry
+			spot.localize( pos );
+			spot.getCovariance( cov );
+			for ( int i = 0; i < 3; i++ )
+				for ( int j = 0; j < 3; j++ )
+					cov1d[ i * 3 + j ] = cov[ i ][ j ];
+			if ( rasterizer != null )
+				rasterizer.add( spot.getTimepoint(), id, pos, cov );
+			if ( spotsWriter != null )
+			{
+				try
+				{
+					if ( !isFirstSpot )
+						spotsWriter.write( ',' );
+					isFirstSpot = false;
+					Json.object()
+							.add( "t", spot.getTimepoint() )
+							.add( "pos", Json.array( pos ) )
+							.add( "covariance", Json.array( cov1d ) )
+							.add( "value", id )
+							.writeTo( spotsWriter );
+				}
+				catch ( final IOException e )
+				{
+					throw new UncheckedIOException( e );
+				}
+			}
+			idMapWriter.writeNext( new String[] { Integer.toString( getVertexId( spot ) ), Integer.toString( id ) } );
+			final int nOutgoingEdges = spot.outgoingEdges().size();
+			if ( nOutgoingEdges == 0 )
+			{
+				writeTrack( resWriter, id, start[ 0 ], spot.getTimepoint(), parent );
+				id++;
+				return continueTrack( parent );
+			}
+			if ( 1 < nOutgoingEdges )
+			{
+				writeTrack( resWriter, id, start[ 0 ], spot.getTimepoint(), parent );
+				return newTrack( id++ );
+			}
+			return continueTrack( parent );
+		} );
+	}
+
+	private static void writeTrack( final CSVWriter writer, final int id, final int start, final int end, final int parent )
+	{
+		writer.writeNext( new String[] {
+				Integer.toString( id ),
+				Integer.toString( start ),
+				Integer.toString( end ),
+				Integer.toString( parent )
+		} );
 	}
 
 }
@@ -29,6 +29,13 @@
 
 package org.elephant.actions;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
 /**
  * GPU object
  *
@@ -72,4 +79,23 @@ public class GPU
 		return usedMemory;
 	}
 
+	/**
+	 * Parse the GPUs reported by the server, as returned from state/gpus or
+	 * pushed to the "status" exchange.
+	 */
+	public static List< GPU > fromJson( final JsonArray jsonGpus )
+	{
+		final List< GPU > gpus = new ArrayList<>();
+		for ( final JsonValue jsonValue : jsonGpus )
+		{
+			final JsonObject jsonGpu = jsonValue.asObject();
+			final String id = jsonGpu.get( "id" ).asString();
+			final String name = jsonGpu.get( "name" ).asString();
+			final float totalMemory = jsonGpu.get( "mem_total" ).asFloat();
+			final float usedMemory = jsonGpu.get( "mem_used" ).asFloat();
+			gpus.add( new GPU( id, name, totalMemory, usedMemory ) );
+		}
+		return gpus;
+	}
+
 }
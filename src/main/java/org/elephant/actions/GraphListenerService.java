@@ -64,6 +64,7 @@ public class GraphListenerService extends AbstractElephantService
 	public void graphRebuilt()
 	{
 		getClientLogger().info( "Graph rebuilt" );
+		DetectionLabelSync.of( getModel() ).reset();
 	}
 
 	@Override
@@ -100,6 +101,7 @@ public class GraphListenerService extends AbstractElephantService
 	@Override
 	public void vertexRemoved( Spot vertex )
 	{
+		DetectionLabelSync.of( getModel() ).spotRemoved( vertex );
 		// ignore if not measuring or modified programatically during measurement
 		if ( getActionStateManager().isMeasuring() && !getActionStateManager().isWriting() )
 		{
@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * An iterative walker over the lineage rooted at a spot, following outgoing
+ * edges.
+ * <p>
+ * Pending spots are kept as pool indices in a primitive stack (or queue), so
+ * that the walk does not depend on the call stack depth and does not allocate
+ * per spot. The refs and the stack are reused across walks; call
+ * {@link #release()} when the walker is no longer needed. The caller must
+ * hold the read lock (or the write lock) during a walk.
+ * <p>
+ * Each visit receives an {@code int} state from its parent and returns the
+ * state to pass to its children, which lets visitors carry per-branch values
+ * such as a track id without recursion.
+ * 
+ * @author Ko Sugawara
+ */
+public class LineageWalker
+{
+
+	/**
+	 * Returned by a {@link Visitor} to end the walk.
+	 */
+	public static final int STOP = Integer.MIN_VALUE;
+
+	public enum Order
+	{
+		/**
+		 * Pre-order depth-first, visiting the children in the order of the
+		 * outgoing edges. This is the order of a recursive traversal.
+		 */
+		DEPTH_FIRST,
+
+		/**
+		 * Breadth-first, i.e. in the order of the distance from the root.
+		 */
+		BREADTH_FIRST
+	}
+
+	@FunctionalInterface
+	public interface Visitor
+	{
+		/**
+		 * Visit a spot.
+		 * 
+		 * @param spot
+		 *            the spot, which is only valid during the call and must not
+		 *            be re-assigned.
+		 * @param state
+		 *            the state returned by the visit of the parent, or the
+		 *            initial state for the root.
+		 * @return the state to pass to the children, or {@link #STOP} to end
+		 *         the walk.
+		 */
+		int visit( Spot spot, int state );
+	}
+
+	private final ModelGraph graph;
+
+	private final Order order;
+
+	private final Spot spotRef;
+
+	private final Spot childRef;
+
+	private final Link edgeRef;
+
+	private final TIntArrayList spotIds = new TIntArrayList();
+
+	private final TIntArrayList states = new TIntArrayList();
+
+	private final TIntArrayList childIds = new TIntArrayList();
+
+	public LineageWalker( final ModelGraph graph )
+	{
+		this( graph, Order.DEPTH_FIRST );
+	}
+
+	public LineageWalker( final ModelGraph graph, final Order order )
+	{
+		this.graph = graph;
+		this.order = order;
+		spotRef = graph.vertexRef();
+		childRef = graph.vertexRef();
+		edgeRef = graph.edgeRef();
+	}
+
+	/**
+	 * Walk the lineage rooted at the spot.
+	 * 
+	 * @param root
+	 *            the root spot, which is not modified.
+	 * @param initialState
+	 *            the state passed to the visit of the root.
+	 * @param visitor
+	 *            the visitor.
+	 * @return false if the visitor ended the walk with {@link #STOP}, true
+	 *         otherwise.
+	 */
+	public boolean walk( final Spot root, final int initialState, final Visitor visitor )
+	{
+		spotIds.resetQuick();
+		states.resetQuick();
+		spotIds.add( root.getInternalPoolIndex() );
+		states.add( initialState );
+		int head = 0;
+		while ( head < spotIds.size() )
+		{
+			final int spotId;
+			final int state;
+			if ( order == Order.DEPTH_FIRST )
+			{
+				final int last = spotIds.size() - 1;
+				spotId = spotIds.removeAt( last );
+				state = states.removeAt( last );
+			}
+			else
+			{
+				spotId = spotIds.getQuick( head );
+				state = states.getQuick( head );
+				head++;
+			}
+			final Spot spot = graph.vertices().getRefPool().getObject( spotId, spotRef );
+			final int childState = visitor.visit( spot, state );
+			if ( childState == STOP )
+				return false;
+			childIds.resetQuick();
+			for ( int i = 0; i < spot.outgoingEdges().size(); i++ )
+			{
+				final Link edge = spot.outgoingEdges().get( i, edgeRef );
+				childIds.add( edge.getTarget( childRef ).getInternalPoolIndex() );
+			}
+			if ( order == Order.DEPTH_FIRST )
+			{
+				// push in reverse so that the first child is visited first
+				for ( int i = childIds.size() - 1; 0 <= i; i-- )
+				{
+					spotIds.add( childIds.getQuick( i ) );
+					states.add( childState );
+				}
+			}
+			else
+			{
+				for ( int i = 0; i < childIds.size(); i++ )
+				{
+					spotIds.add( childIds.getQuick( i ) );
+					states.add( childState );
+				}
+			}
+		}
+		return true;
+	}
+
+	public void release()
+	{
+		graph.releaseRef( spotRef );
+		graph.releaseRef( childRef );
+		graph.releaseRef( edgeRef );
+	}
+
+}
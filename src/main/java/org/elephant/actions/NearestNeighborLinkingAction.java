@@ -29,18 +29,17 @@
 
 package org.elephant.actions;
 
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
@@ -71,9 +70,17 @@ import org.scijava.plugin.Plugin;
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
-import com.eclipsesource.json.JsonValue;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import kong.unirest.UnirestException;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
@@ -134,6 +141,12 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		}
 	}
 
+	/**
+	 * The penalty of each additional edge from a spot (division) in the global
+	 * assignment, relative to the squared linking threshold.
+	 */
+	private static final double DIVISION_PENALTY_RATIO = 0.01;
+
 	private final NearestNeighborLinkingActionMode mode;
 
 	private final BdvViewMouseMotionService mouseMotionService;
@@ -277,6 +290,17 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 	@Override
 	public void processDataset()
 	{
+		if ( getMainSettings().getUseOpticalflow() && getServerStateManager().isFlowStreamSupported() )
+		{
+			final List< Integer > timepoints = new ArrayList<>();
+			timepointIterator.forEachRemaining( timepoints::add );
+			if ( 1 < timepoints.size() )
+			{
+				new Thread( () -> processRange( timepoints ) ).start();
+				return;
+			}
+			timepointIterator = timepoints.iterator();
+		}
 		processNext( timepointIterator, pos, cov );
 	}
 
@@ -286,46 +310,25 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		{
 			final int timepoint = timepointIterator.next();
 
-			final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
-			Predicate< Link > edgeFilter = edge -> edge.getTarget().getTimepoint() == timepoint;
-			edgeFilter = edgeFilter.and( edge -> getEdgeTagMap( getTrackingTagSet() ).get( edge ) == trackingUnlabeledTag );
-			if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
-				edgeFilter = edgeFilter.and( edge -> ElephantUtils.edgeIsInside( edge, cropBoxOrigin, cropBoxSize ) );
 			// acquire lock inside removeEdgesTaggedWith
-			removeEdges( getGraph().edges(), edgeFilter );
+			removeEdges( getGraph().edges(), unlabeledEdgeFilter( t -> t == timepoint ) );
 
-			final JsonArray jsonSpots = Json.array();
-			getGraph().getLock().readLock().lock();
-			try
-			{
-				final TagSet tagSetDetection = getDetectionTagSet();
-				final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( tagSetDetection );
-				Predicate< Spot > spotFilter = spot -> spot.getTimepoint() == timepoint;
-				spotFilter = spotFilter.and( spot -> tagsToProcess.contains( tagMapDetection.get( spot ) ) );
-				spotFilter = spotFilter.and( spot -> spot.incomingEdges().size() == 0 );
-				if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
-					spotFilter = spotFilter.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
-				addSpotsToJsonFlow( getGraph().vertices(), jsonSpots, spotFilter );
-			}
-			finally
-			{
-				getGraph().getLock().readLock().unlock();
-			}
+			final SpotColumns spotColumns = collectSpotsToLink( timepoint, timepoint );
 			if ( getMainSettings().getUseOpticalflow() )
 			{
 				jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
-				jsonRootObject.set( JSON_KEY_SPOTS, jsonSpots );
+				setSpots( jsonRootObject, spotColumns );
 				try
 				{
-					postAsStringAsync( getEndpointURL( ENDPOINT_FLOW_PREDICT ), jsonRootObject.toString(),
+					postAsSpotsAsync( getEndpointURL( ENDPOINT_FLOW_PREDICT ), jsonRootObject.toString(),
 							response -> {
 								if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 								{
-									final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
-									if ( rootObject.get( "completed" ).asBoolean() )
+									final SpotColumns spotColumnsRes = SpotColumns.fromResponseBody(
+											response.getHeaders().getFirst( "Content-Type" ), response.getBody() );
+									if ( spotColumnsRes.isCompleted() )
 									{
-										final JsonArray jsonSpotsRes = rootObject.get( "spots" ).asArray();
-										linkSpots( jsonSpotsRes, timepoint, tagsToProcess, timepointIterator, pos, cov );
+										link( spotColumnsRes, timepoint, tagsToProcess, timepointIterator, pos, cov );
 										showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000,
 												TextPosition.BOTTOM_RIGHT );
 									}
@@ -336,14 +339,8 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 								}
 								else
 								{
-									final StringBuilder sb = new StringBuilder( response.getStatusText() );
-									if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
-									{
-										sb.append( ": " );
-										sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
-									}
-									showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
-									getClientLogger().severe( sb.toString() );
+									showResponseError( response.getStatus(), response.getStatusText(),
+											new String( response.getBody(), StandardCharsets.UTF_8 ) );
 								}
 							} );
 				}
@@ -354,7 +351,7 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 			}
 			else
 			{
-				linkSpots( jsonSpots, timepoint, tagsToProcess, timepointIterator, pos, cov );
+				link( spotColumns, timepoint, tagsToProcess, timepointIterator, pos, cov );
 				showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000, TextPosition.BOTTOM_RIGHT );
 				if ( getActionStateManager().isAborted() )
 					showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
@@ -365,7 +362,343 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		}
 	}
 
-	private void linkSpots( final JsonArray jsonSpots, final int timepoint, final List< Tag > tagsToProcess,
+	/**
+	 * Link a whole time range with a single flow request.
+	 * <p>
+	 * The spots of all the timepoints are sent at once and the server streams
+	 * back the flow of each frame in the order of {@code timepoints}, i.e. from
+	 * the last timepoint to the first one. Each frame is linked as soon as it
+	 * arrives. Spots interpolated while linking the previous frame are linked
+	 * without flow. If the server does not provide the streaming endpoint, it
+	 * falls back to one request per timepoint.
+	 */
+	private void processRange( final List< Integer > timepoints )
+	{
+		final int timepointEnd = timepoints.get( 0 );
+		final int timepointStart = timepoints.get( timepoints.size() - 1 );
+		final IntPredicate timepointFilter = t -> timepointStart <= t && t <= timepointEnd;
+
+		// acquire lock inside removeEdgesTaggedWith
+		removeEdges( getGraph().edges(), unlabeledEdgeFilter( timepointFilter ) );
+
+		final SpotColumns spotColumns = collectSpotsToLink( timepointStart, timepointEnd );
+		final JsonObject jsonRangeObject = new JsonObject( jsonRootObject );
+		jsonRangeObject.remove( JSON_KEY_TIMEPOINT );
+		jsonRangeObject.set( JSON_KEY_T_START, timepointStart );
+		jsonRangeObject.set( JSON_KEY_T_END, timepointEnd );
+		setSpots( jsonRangeObject, spotColumns );
+		final Iterator< Integer > frameTimepointIterator = timepoints.iterator();
+		try
+		{
+			postAsSpotStream( getEndpointURL( ENDPOINT_FLOW_PREDICT_STREAM ), jsonRangeObject.toString(),
+					frame -> {
+						if ( !frameTimepointIterator.hasNext() )
+							return false;
+						final int timepoint = frameTimepointIterator.next();
+						if ( frame.isCompleted() )
+						{
+							if ( getMainSettings().getUseInterpolation() )
+								addSpotsWithoutFlow( frame, timepoint );
+							link( frame, timepoint, tagsToProcess, frameTimepointIterator, pos, cov );
+							showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000,
+									TextPosition.BOTTOM_RIGHT );
+						}
+						if ( getActionStateManager().isAborted() )
+						{
+							showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
+							return false;
+						}
+						return true;
+					},
+					response -> {
+						if ( response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
+						{
+							getClientLogger().info( "The server does not support " + ENDPOINT_FLOW_PREDICT_STREAM
+									+ ", falling back to " + ENDPOINT_FLOW_PREDICT );
+							getServerStateManager().setFlowStreamSupported( false );
+							processNext( timepoints.iterator(), pos, cov );
+						}
+						else
+						{
+							showResponseError( response.getStatus(), response.getStatusText(), response.getContentAsString() );
+						}
+					} );
+		}
+		catch ( final ElephantConnectException e )
+		{
+			// already handled by UnirestMixin
+		}
+		catch ( final UnirestException e )
+		{
+			handleRequestFailure( e );
+		}
+		catch ( final UncheckedIOException | IllegalArgumentException e )
+		{
+			handleError( e );
+			showTextOverlayAnimator( "Invalid flow response", 3000, TextPosition.CENTER );
+		}
+	}
+
+	private void showResponseError( final int status, final String statusText, final String body )
+	{
+		final StringBuilder sb = new StringBuilder( statusText );
+		if ( status == HttpURLConnection.HTTP_INTERNAL_ERROR )
+		{
+			sb.append( ": " );
+			sb.append( Json.parse( body ).asObject().get( "error" ).asString() );
+		}
+		showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+		getClientLogger().severe( sb.toString() );
+	}
+
+	private Predicate< Link > unlabeledEdgeFilter( final IntPredicate timepointFilter )
+	{
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+		Predicate< Link > edgeFilter = edge -> timepointFilter.test( edge.getTarget().getTimepoint() );
+		edgeFilter = edgeFilter.and( edge -> getEdgeTagMap( getTrackingTagSet() ).get( edge ) == trackingUnlabeledTag );
+		if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
+			edgeFilter = edgeFilter.and( edge -> ElephantUtils.edgeIsInside( edge, cropBoxOrigin, cropBoxSize ) );
+		return edgeFilter;
+	}
+
+	/**
+	 * The filter for the spots to be linked at the timepoints being iterated
+	 * over. The caller must hold the read
+	 * lock while using it.
+	 */
+	private Predicate< Spot > spotsToLinkFilter()
+	{
+		final TagSet tagSetDetection = getDetectionTagSet();
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( tagSetDetection );
+		Predicate< Spot > spotFilter = spot -> tagsToProcess.contains( tagMapDetection.get( spot ) );
+		spotFilter = spotFilter.and( spot -> spot.incomingEdges().size() == 0 );
+		if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
+			spotFilter = spotFilter.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
+		return spotFilter;
+	}
+
+	private SpotColumns collectSpotsToLink( final int timepointStart, final int timepointEnd )
+	{
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			return collectSpotsFlow( getSpotsInTimepointRange( timepointStart, timepointEnd ), spotsToLinkFilter() );
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add the spots to be linked at the timepoint that are missing in the frame
+	 * received from the server, i.e. the spots interpolated after the request
+	 * was sent. They are added without displacement.
+	 */
+	private void addSpotsWithoutFlow( final SpotColumns frame, final int timepoint )
+	{
+		final TIntSet spotIds = new TIntHashSet( frame.size() );
+		for ( int index = 0; index < frame.size(); index++ )
+			spotIds.add( frame.getId( index ) );
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			final Predicate< Spot > spotFilter = spotsToLinkFilter();
+			for ( final Spot spot : getSpatioTemporalIndex().getSpatialIndex( timepoint ) )
+			{
+				if ( !spotIds.contains( spot.getInternalPoolIndex() ) && spotFilter.test( spot ) )
+				{
+					spot.localize( pos );
+					spot.getCovariance( cov );
+					frame.add( timepoint, pos, cov, spot.getInternalPoolIndex(), 0 );
+				}
+			}
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+	}
+
+	private void setSpots( final JsonObject jsonObject, final SpotColumns spotColumns )
+	{
+		if ( getServerStateManager().isBinarySpotsSupported() )
+		{
+			jsonObject.remove( JSON_KEY_SPOTS );
+			jsonObject.set( JSON_KEY_SPOTS_BINARY, spotColumns.encodeBase64() );
+		}
+		else
+		{
+			jsonObject.remove( JSON_KEY_SPOTS_BINARY );
+			jsonObject.set( JSON_KEY_SPOTS, spotColumns.toJson() );
+		}
+	}
+
+	private void link( final SpotColumns spotColumns, final int timepoint, final List< Tag > tagsToProcess,
+			final Iterator< Integer > timepointIterator, final double[] pos, final double[][] cov )
+	{
+		if ( getMainSettings().getUseGlobalAssignment() )
+			linkSpotsGlobally( spotColumns, timepoint, tagsToProcess, pos, cov );
+		else
+			linkSpots( spotColumns, timepoint, tagsToProcess, timepointIterator, pos, cov );
+	}
+
+	/**
+	 * Link spots by solving a global assignment problem in one pass over the
+	 * candidates, as an alternative to the greedy {@link #linkSpots}.
+	 * <p>
+	 * Each spot to be linked is a row. Each candidate found by the incremental
+	 * nearest neighbor search provides one column (slot) per edge that it can
+	 * still accept up to the max edges setting. The first slot costs the
+	 * squared distance. The other slots represent a division and are only
+	 * admissible when the division rule of the greedy linking allows it; they
+	 * cost a small penalty on top of the squared distance. Each row also has
+	 * its own "no link" column that costs more than any admissible link.
+	 */
+	private void linkSpotsGlobally( final SpotColumns spotColumns, final int timepoint, final List< Tag > tagsToProcess,
+			final double[] pos, final double[][] cov )
+	{
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final ObjTagMap< Spot, Tag > tagMapTrackingSpot = getVertexTagMap( getTrackingTagSet() );
+		final ObjTagMap< Link, Tag > tagMapTrackingLink = getEdgeTagMap( getTrackingTagSet() );
+		final Tag detectionUnlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+
+		final boolean useOpticalflow = getMainSettings().getUseOpticalflow();
+		final boolean useInterpolation = getMainSettings().getUseInterpolation();
+		final int searchDepth = getMainSettings().getNNSearchDepth();
+		final int searchNeighbors = getMainSettings().getNNSearchNeighbors();
+		final double divisionPenalty = squaredDistanceThreshold * DIVISION_PENALTY_RATIO;
+
+		// rows: spots to be linked
+		final TIntArrayList rowSpotIds = new TIntArrayList();
+		final TIntArrayList rowIndices = new TIntArrayList();
+		// columns: edge slots of the candidate spots
+		final TIntArrayList colSpotIds = new TIntArrayList();
+		final TIntIntMap firstColOfSpot = new TIntIntHashMap();
+		final TIntIntMap nExistingEdgesOfSpot = new TIntIntHashMap();
+		// admissible pairs
+		final TIntArrayList pairRows = new TIntArrayList();
+		final TIntArrayList pairCols = new TIntArrayList();
+		final TDoubleArrayList pairCosts = new TDoubleArrayList();
+
+		final Spot spotRef = getGraph().vertexRef();
+		final Spot candidateRef = getGraph().vertexRef();
+		final Spot sourceRef = getGraph().vertexRef();
+		final Spot newSpotRef = getGraph().vertexRef();
+		final Link edgeRef = getGraph().edgeRef();
+		try
+		{
+			getGraph().getLock().readLock().lock();
+			try
+			{
+				final Candidates[] candidates = findCandidates( spotColumns, timepoint, tagsToProcess, searchDepth, searchNeighbors );
+				for ( int index = 0; index < spotColumns.size(); index++ )
+				{
+					final int spotId = spotColumns.getId( index );
+					final Spot spot = getVertexByPoolIndex( spotId, spotRef );
+					if ( spot == null || spot.getTimepoint() != timepoint )
+					{
+						getClientLogger().info( "spot " + spotId + " was not found" );
+						continue;
+					}
+					final int row = rowSpotIds.size();
+					rowSpotIds.add( spotId );
+					rowIndices.add( index );
+					final Candidates spotCandidates = candidates[ index ];
+					for ( int c = 0; c < spotCandidates.size(); c++ )
+					{
+						final Spot nearestSpot = getVertexByPoolIndex( spotCandidates.spotIds.get( c ), candidateRef );
+						if ( nearestSpot == null )
+							continue;
+						final double squaredDistance = spotCandidates.squaredDistances.get( c );
+						final int candidateId = nearestSpot.getInternalPoolIndex();
+						if ( !firstColOfSpot.containsKey( candidateId ) )
+						{
+							final int nExistingEdges = nearestSpot.outgoingEdges().size();
+							firstColOfSpot.put( candidateId, colSpotIds.size() );
+							nExistingEdgesOfSpot.put( candidateId, nExistingEdges );
+							for ( int k = nExistingEdges; k < maxEdges; k++ )
+								colSpotIds.add( candidateId );
+						}
+						final double sqDisp = useOpticalflow ? spotColumns.getSqDisp( index ) : squaredDistance;
+						final boolean isDivisionAllowed = 1.0 < sqDisp || squaredDistance < 1.0;
+						final int firstCol = firstColOfSpot.get( candidateId );
+						final int nExistingEdges = nExistingEdgesOfSpot.get( candidateId );
+						for ( int k = nExistingEdges; k < maxEdges; k++ )
+						{
+							if ( 0 < k && !isDivisionAllowed )
+								break;
+							pairRows.add( row );
+							pairCols.add( firstCol + k - nExistingEdges );
+							pairCosts.add( squaredDistance + k * divisionPenalty );
+						}
+					}
+				}
+			}
+			finally
+			{
+				getGraph().getLock().readLock().unlock();
+			}
+
+			final int nRows = rowSpotIds.size();
+			final int nSlots = colSpotIds.size();
+			final SparseAssignmentSolver solver = new SparseAssignmentSolver( nRows, nSlots + nRows );
+			for ( int k = 0; k < pairRows.size(); k++ )
+				solver.addCost( pairRows.get( k ), pairCols.get( k ), pairCosts.get( k ) );
+			final double noLinkCost = squaredDistanceThreshold + maxEdges * divisionPenalty + 1.0;
+			for ( int row = 0; row < nRows; row++ )
+				solver.addCost( row, nSlots + row, noLinkCost );
+			final int[] assignment = solver.solve();
+
+			getGraph().getLock().writeLock().lock();
+			getActionStateManager().setWriting( true );
+			try
+			{
+				for ( int row = 0; row < nRows; row++ )
+				{
+					final int col = assignment[ row ];
+					if ( nSlots <= col )
+						continue;
+					final Spot spot = getVertexByPoolIndex( rowSpotIds.get( row ), spotRef );
+					Spot source = getVertexByPoolIndex( colSpotIds.get( col ), sourceRef );
+					if ( spot == null || source == null )
+						continue;
+					if ( useInterpolation && source.getTimepoint() < timepoint - 1 )
+					{
+						spotColumns.getPosition( rowIndices.get( row ), pos );
+						spot.getCovariance( cov );
+						source = getGraph().addVertex( newSpotRef ).init( timepoint - 1, pos, cov );
+						tagMapDetection.set( source, detectionUnlabeledTag );
+						tagMapTrackingSpot.set( source, trackingUnlabeledTag );
+					}
+					final Link edge = getGraph().addEdge( source, spot, edgeRef ).init();
+					tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+				}
+			}
+			finally
+			{
+				getModel().setUndoPoint();
+				getActionStateManager().setWriting( false );
+				getGraph().getLock().writeLock().unlock();
+			}
+		}
+		catch ( final Exception e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+		}
+		finally
+		{
+			getGraph().releaseRef( spotRef );
+			getGraph().releaseRef( candidateRef );
+			getGraph().releaseRef( sourceRef );
+			getGraph().releaseRef( newSpotRef );
+			getGraph().releaseRef( edgeRef );
+			notifyGraphChanged();
+		}
+	}
+
+	private void linkSpots( final SpotColumns spotColumns, final int timepoint, final List< Tag > tagsToProcess,
 			final Iterator< Integer > timepointIterator, final double[] pos, final double[][] cov )
 	{
 		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
@@ -375,29 +708,29 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
 		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
 
-		final List< Integer > linkedSpotIds = new ArrayList<>();
-		final Map< Integer, Double > distMap = new HashMap<>();
-		final Map< Integer, Double > sqDispMap = new HashMap<>();
-		final Set< Integer > interpolatedIdSet = new HashSet<>();
+		final TIntSet linkedSpotIds = new TIntHashSet();
+		final TIntDoubleMap distMap = new TIntDoubleHashMap();
+		final TIntDoubleMap sqDispMap = new TIntDoubleHashMap();
+		final TIntSet interpolatedIdSet = new TIntHashSet();
 
 		final boolean useInterpolation = getMainSettings().getUseInterpolation();
 		final int searchDepth = getMainSettings().getNNSearchDepth();
 		final int searchNeighbors = getMainSettings().getNNSearchNeighbors();
+		final Spot spotRef = getGraph().vertexRef();
+		final Spot candidateRef = getGraph().vertexRef();
 		final Spot sourceRef = getGraph().vertexRef();
 		final Spot targetRef = getGraph().vertexRef();
 		final Spot newSpotRef = getGraph().vertexRef();
 		final Link edgeRef = getGraph().edgeRef();
 
-		final RealPoint point = new RealPoint( 3 );
-
 		final Comparator< Link > comparatorLink = new Comparator< Link >()
 		{
 			@Override
 			public int compare( Link o1, Link o2 )
 			{
 				return Double.compare(
-						distMap.getOrDefault( o1.getInternalPoolIndex(), squaredDistanceOf( o1 ) ),
-						distMap.getOrDefault( o2.getInternalPoolIndex(), squaredDistanceOf( o2 ) ) );
+						squaredDistanceOf( o1, distMap ),
+						squaredDistanceOf( o2, distMap ) );
 			}
 
 		};
@@ -405,114 +738,84 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		getGraph().getLock().readLock().lock();
 		try
 		{
+			final Candidates[] candidates = findCandidates( spotColumns, timepoint, tagsToProcess, searchDepth, searchNeighbors );
 			final RefList< Link > linksToRemove = RefCollections.createRefList( getGraph().edges() );
-			final Supplier< Stream< Spot > > spotSupplier =
-					() -> getGraph().vertices().stream().filter( s -> s.getTimepoint() == timepoint );
 			for ( int n = 0; n < 5; n++ )
 			{
-				for ( final JsonValue jsonValue : jsonSpots )
+				for ( int index = 0; index < spotColumns.size(); index++ )
 				{
-					final JsonObject jsonSpot = jsonValue.asObject();
-					final int spotId = jsonSpot.get( "id" ).asInt();
+					final int spotId = spotColumns.getId( index );
 					if ( linkedSpotIds.contains( spotId ) )
 						continue;
-					final Spot spot = spotSupplier.get().filter( s -> s.getInternalPoolIndex() == spotId ).findFirst().orElse( null );
-					if ( spot == null )
+					final Spot spot = getVertexByPoolIndex( spotId, spotRef );
+					if ( spot == null || spot.getTimepoint() != timepoint )
 					{
-						getClientLogger().info( "spot " + spot + " was not found" );
+						getClientLogger().info( "spot " + spotId + " was not found" );
 					}
 					else
 					{
-						final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
-						double sqDisp = getMainSettings().getUseOpticalflow() ? jsonSpot.get( "sqdisp" ).asDouble() : 0;
-						for ( int t = 0; t < searchDepth && 0 <= ( timepoint - 1 - t ); t++ )
+						double sqDisp = getMainSettings().getUseOpticalflow() ? spotColumns.getSqDisp( index ) : 0;
+						spotColumns.getPosition( index, pos );
+						final Candidates spotCandidates = candidates[ index ];
+						for ( int k = 0; k < spotCandidates.size(); k++ )
 						{
-							final int timepointToSearch = timepoint - 1 - t;
-							final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( timepointToSearch );
-							final IncrementalNearestNeighborSearch< Spot > inns = spatialIndex.getIncrementalNearestNeighborSearch();
-							for ( int j = 0; j < 3; j++ )
-								pos[ j ] = jsonPositions.get( j ).asDouble();
-							point.setPosition( pos );
-							inns.search( point );
-							for ( int i = 0; inns.hasNext() && i < searchNeighbors; i++ )
+							final Spot nearestSpot = getVertexByPoolIndex( spotCandidates.spotIds.get( k ), candidateRef );
+							if ( nearestSpot == null )
+								continue;
+							final int t = spotCandidates.depths.get( k );
+							final double squaredDistance = spotCandidates.squaredDistances.get( k );
+							// TODO: Division detector
+							if ( !getMainSettings().getUseOpticalflow() )
+								sqDisp = squaredDistance;
+							int acceptableEdges = 1.0 < sqDisp ? maxEdges : 1;
+							for ( final Link edge : nearestSpot.outgoingEdges() )
 							{
-								final Spot nearestSpot = inns.next();
-								if ( !tagsToProcess.contains( tagMapDetection.get( nearestSpot ) ) )
-									continue;
-								final double squaredDistance = inns.getSquareDistance();
-								if ( squaredDistanceThreshold < squaredDistance )
-									break;
-								// TODO: Division detector
-								if ( !getMainSettings().getUseOpticalflow() )
-									sqDisp = squaredDistance;
-								int acceptableEdges = 1.0 < sqDisp ? maxEdges : 1;
-								for ( final Link edge : nearestSpot.outgoingEdges() )
-								{
-									if ( 1.0 < sqDispMap.getOrDefault( edge.getInternalPoolIndex(), 0.0 ) )
-										acceptableEdges = maxEdges;
-									if ( ( squaredDistance < 1.0 ) && ( distMap.getOrDefault( edge.getInternalPoolIndex(), 0.0 ) < 1.0 ) )
-										acceptableEdges = maxEdges;
-								}
-								final Supplier< Stream< Link > > edgeSupplier =
-										() -> StreamSupport.stream( nearestSpot.outgoingEdges().spliterator(), false );
-								final long nApprovedEdges =
-										edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) == trackingApprovedTag ).count();
-								if ( nApprovedEdges < acceptableEdges )
+								if ( 1.0 < getOrDefault( sqDispMap, edge.getInternalPoolIndex(), 0.0 ) )
+									acceptableEdges = maxEdges;
+								if ( ( squaredDistance < 1.0 ) && ( getOrDefault( distMap, edge.getInternalPoolIndex(), 0.0 ) < 1.0 ) )
+									acceptableEdges = maxEdges;
+							}
+							final Supplier< Stream< Link > > edgeSupplier =
+									() -> StreamSupport.stream( nearestSpot.outgoingEdges().spliterator(), false );
+							final long nApprovedEdges =
+									edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) == trackingApprovedTag ).count();
+							if ( nApprovedEdges < acceptableEdges )
+							{
+								if ( acceptableEdges <= edgeSupplier.get().count() )
 								{
-									if ( acceptableEdges <= edgeSupplier.get().count() )
+									final Link longestEdge =
+											edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) != trackingApprovedTag )
+													.max( comparatorLink ).orElse( null );
+									if ( longestEdge != null )
 									{
-										final Link longestEdge =
-												edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) != trackingApprovedTag )
-														.max( comparatorLink ).orElse( null );
-										if ( longestEdge != null )
+										if ( squaredDistanceOf( longestEdge, distMap ) < squaredDistance )
+											continue;
+										else
 										{
-											if ( distMap.getOrDefault( longestEdge.getInternalPoolIndex(),
-													squaredDistanceOf( longestEdge ) ) < squaredDistance )
-												continue;
-											else
+											edgeRef.refTo( longestEdge );
+											edgeRef.getSource( sourceRef );
+											edgeRef.getTarget( targetRef );
+											if ( 0 < sourceRef.getInternalPoolIndex() && 0 < targetRef.getInternalPoolIndex() )
 											{
-												edgeRef.refTo( longestEdge );
-												edgeRef.getSource( sourceRef );
-												edgeRef.getTarget( targetRef );
-												if ( 0 < sourceRef.getInternalPoolIndex() && 0 < targetRef.getInternalPoolIndex() )
-												{
-													linksToRemove.add( edgeRef );
-													linkedSpotIds.remove( ( Integer ) targetRef.getInternalPoolIndex() );
-												}
+												linksToRemove.add( edgeRef );
+												linkedSpotIds.remove( targetRef.getInternalPoolIndex() );
 											}
 										}
 									}
-									if ( useInterpolation && ( 0 < t ) && !interpolatedIdSet.contains( spotId ) )
-									{
-										spot.getCovariance( cov );
-										getGraph().getLock().readLock().unlock();
-										getGraph().getLock().writeLock().lock();
-										getActionStateManager().setWriting( true );
-										try
-										{
-											final Spot newSpot = getGraph().addVertex( newSpotRef ).init( timepoint - 1, pos, cov );
-											tagMapDetection.set( newSpot, detectionUnlabeledTag );
-											tagMapTrackingSpot.set( newSpot, trackingUnlabeledTag );
-											nearestSpot.refTo( newSpotRef );
-											interpolatedIdSet.add( spot.getInternalPoolIndex() );
-											getGraph().getLock().readLock().lock();
-										}
-										finally
-										{
-											getActionStateManager().setWriting( false );
-											getGraph().getLock().writeLock().unlock();
-										}
-									}
+								}
+								if ( useInterpolation && ( 0 < t ) && !interpolatedIdSet.contains( spotId ) )
+								{
+									spot.getCovariance( cov );
 									getGraph().getLock().readLock().unlock();
 									getGraph().getLock().writeLock().lock();
 									getActionStateManager().setWriting( true );
 									try
 									{
-										final Link edge = getGraph().addEdge( nearestSpot, spot ).init();
-										tagMapTrackingLink.set( edge, trackingUnlabeledTag );
-										linkedSpotIds.add( spot.getInternalPoolIndex() );
-										distMap.put( edge.getInternalPoolIndex(), squaredDistance );
-										sqDispMap.put( edge.getInternalPoolIndex(), sqDisp );
+										final Spot newSpot = getGraph().addVertex( newSpotRef ).init( timepoint - 1, pos, cov );
+										tagMapDetection.set( newSpot, detectionUnlabeledTag );
+										tagMapTrackingSpot.set( newSpot, trackingUnlabeledTag );
+										nearestSpot.refTo( newSpotRef );
+										interpolatedIdSet.add( spot.getInternalPoolIndex() );
 										getGraph().getLock().readLock().lock();
 									}
 									finally
@@ -520,11 +823,26 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 										getActionStateManager().setWriting( false );
 										getGraph().getLock().writeLock().unlock();
 									}
-									break;
 								}
-							}
-							if ( linkedSpotIds.contains( spotId ) )
+								getGraph().getLock().readLock().unlock();
+								getGraph().getLock().writeLock().lock();
+								getActionStateManager().setWriting( true );
+								try
+								{
+									final Link edge = getGraph().addEdge( nearestSpot, spot ).init();
+									tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+									linkedSpotIds.add( spot.getInternalPoolIndex() );
+									distMap.put( edge.getInternalPoolIndex(), squaredDistance );
+									sqDispMap.put( edge.getInternalPoolIndex(), sqDisp );
+									getGraph().getLock().readLock().lock();
+								}
+								finally
+								{
+									getActionStateManager().setWriting( false );
+									getGraph().getLock().writeLock().unlock();
+								}
 								break;
+							}
 						}
 					}
 				}
@@ -548,6 +866,8 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 				getActionStateManager().setWriting( false );
 				getGraph().getLock().writeLock().unlock();
 			}
+			getGraph().releaseRef( spotRef );
+			getGraph().releaseRef( candidateRef );
 			getGraph().releaseRef( sourceRef );
 			getGraph().releaseRef( targetRef );
 			getGraph().releaseRef( newSpotRef );
@@ -564,11 +884,78 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		}
 	}
 
-	private void addSpotsToJsonFlow( final Collection< Spot > spots, final JsonArray jsonSpots, Predicate< Spot > filter )
+	/**
+	 * Get the squared distance of an edge, using the value recorded while
+	 * linking if it exists.
+	 */
+	private double squaredDistanceOf( final Link edge, final TIntDoubleMap distMap )
+	{
+		final int edgeIndex = edge.getInternalPoolIndex();
+		return distMap.containsKey( edgeIndex ) ? distMap.get( edgeIndex ) : squaredDistanceOf( edge );
+	}
+
+	private static double getOrDefault( final TIntDoubleMap map, final int key, final double defaultValue )
+	{
+		return map.containsKey( key ) ? map.get( key ) : defaultValue;
+	}
+
+	/**
+	 * Find the candidate sources of the spots at the timepoint.
+	 * <p>
+	 * The search is read-only, so it is run in parallel on the common fork-join
+	 * pool over contiguous ranges of the spots. Each range uses its own
+	 * {@link IncrementalNearestNeighborSearch} for each timepoint to search,
+	 * which is released together with the range.
+	 * The candidates of each spot are stored in the order of the sequential
+	 * search, i.e. by timepoint and then by distance. The caller must hold the
+	 * read lock.
+	 */
+	private Candidates[] findCandidates( final SpotColumns spotColumns, final int timepoint, final List< Tag > tagsToProcess,
+			final int searchDepth, final int searchNeighbors )
+	{
+		final int depth = Math.max( 0, Math.min( searchDepth, timepoint ) );
+		final List< SpatialIndex< Spot > > spatialIndices = new ArrayList<>( depth );
+		for ( int t = 0; t < depth; t++ )
+			spatialIndices.add( getSpatioTemporalIndex().getSpatialIndex( timepoint - 1 - t ) );
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final int nSpots = spotColumns.size();
+		final Candidates[] candidates = new Candidates[ nSpots ];
+		final int nRanges = Math.max( 1, Math.min( nSpots, ForkJoinPool.getCommonPoolParallelism() * 4 ) );
+		IntStream.range( 0, nRanges ).parallel().forEach( range -> {
+			final CandidateSearch search = new CandidateSearch( spatialIndices );
+			final int from = ( int ) ( ( long ) nSpots * range / nRanges );
+			final int to = ( int ) ( ( long ) nSpots * ( range + 1 ) / nRanges );
+			for ( int index = from; index < to; index++ )
+			{
+				spotColumns.getPosition( index, search.pos );
+				search.point.setPosition( search.pos );
+				final Candidates spotCandidates = new Candidates();
+				for ( int t = 0; t < depth; t++ )
+				{
+					final IncrementalNearestNeighborSearch< Spot > inns = search.inns.get( t );
+					inns.search( search.point );
+					for ( int i = 0; inns.hasNext() && i < searchNeighbors; i++ )
+					{
+						final Spot nearestSpot = inns.next();
+						if ( !tagsToProcess.contains( tagMapDetection.get( nearestSpot ) ) )
+							continue;
+						final double squaredDistance = inns.getSquareDistance();
+						if ( squaredDistanceThreshold < squaredDistance )
+							break;
+						spotCandidates.add( nearestSpot.getInternalPoolIndex(), t, squaredDistance );
+					}
+				}
+				candidates[ index ] = spotCandidates;
+			}
+		} );
+		return candidates;
+	}
+
+	private SpotColumns collectSpotsFlow( final Iterable< Spot > spots, Predicate< Spot > filter )
 	{
+		final SpotColumns spotColumns = new SpotColumns( 0, false );
 		final double[] pos = new double[ 3 ];
 		final double[][] cov = new double[ 3 ][ 3 ];
-		final double[] cov1d = new double[ 9 ];
 		getGraph().getLock().readLock().lock();
 		try
 		{
@@ -578,16 +965,7 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 				{
 					spot.localize( pos );
 					spot.getCovariance( cov );
-					for ( int i = 0; i < 3; i++ )
-						for ( int j = 0; j < 3; j++ )
-							cov1d[ i * 3 + j ] = cov[ i ][ j ];
-					final int id = spot.getInternalPoolIndex();
-
-					final JsonObject jsonSpot = Json.object()
-							.add( "pos", Json.array( pos ) )
-							.add( "covariance", Json.array( cov1d ) )
-							.add( "id", id );
-					jsonSpots.add( jsonSpot );
+					spotColumns.add( spot.getTimepoint(), pos, cov, spot.getInternalPoolIndex(), 0 );
 				}
 			}
 		}
@@ -595,6 +973,51 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		{
 			getGraph().getLock().readLock().unlock();
 		}
+		return spotColumns;
+	}
+
+	/**
+	 * Candidate sources of a spot, stored as pool indices with the search
+	 * depth and the squared distance.
+	 */
+	private static final class Candidates
+	{
+		private final TIntArrayList spotIds = new TIntArrayList( 4 );
+
+		private final TIntArrayList depths = new TIntArrayList( 4 );
+
+		private final TDoubleArrayList squaredDistances = new TDoubleArrayList( 4 );
+
+		private void add( final int spotId, final int depth, final double squaredDistance )
+		{
+			spotIds.add( spotId );
+			depths.add( depth );
+			squaredDistances.add( squaredDistance );
+		}
+
+		private int size()
+		{
+			return spotIds.size();
+		}
+	}
+
+	/**
+	 * Per-range state for {@link #findCandidates}.
+	 */
+	private static final class CandidateSearch
+	{
+		private final List< IncrementalNearestNeighborSearch< Spot > > inns;
+
+		private final double[] pos = new double[ 3 ];
+
+		private final RealPoint point = new RealPoint( 3 );
+
+		private CandidateSearch( final List< SpatialIndex< Spot > > spatialIndices )
+		{
+			inns = new ArrayList<>( spatialIndices.size() );
+			for ( final SpatialIndex< Spot > spatialIndex : spatialIndices )
+				inns.add( spatialIndex.getIncrementalNearestNeighborSearch() );
+		}
 	}
 
 }
@@ -29,13 +29,21 @@
 
 package org.elephant.actions;
 
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.elephant.actions.ElephantStatusService.ElephantStatus;
 import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantGraphActionMixin;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
@@ -51,6 +59,7 @@ import org.mastodon.mamut.KeyConfigScopes;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.model.tag.TagSetStructure.TagSet;
 import org.mastodon.spatial.SpatialIndex;
 import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
 import org.scijava.ui.behaviour.io.gui.CommandDescriptionProvider;
@@ -62,8 +71,16 @@ import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+import com.rabbitmq.client.Delivery;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import kong.unirest.HttpResponse;
+import kong.unirest.UnirestException;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
@@ -76,7 +93,8 @@ import net.imglib2.neighborsearch.NearestNeighborSearch;
  * @author Ko Sugawara
  */
 public class PredictSpotsAction extends AbstractElephantDatasetAction
-		implements EllipsoidActionMixin, ElephantGraphActionMixin, ElephantGraphTagActionMixin, SpatioTemporalIndexActionMinxin
+		implements EllipsoidActionMixin, ElephantGraphActionMixin, ElephantGraphTagActionMixin, SpatioTemporalIndexActionMinxin,
+		RabbitMQPredictionListener
 {
 
 	private static final long serialVersionUID = 1L;
@@ -99,6 +117,11 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 	private static final String DESCRIPTION_AROUND_MOUSE = String.format( DESCRIPTION_BASE, "(around mouse)" );
 
+	/**
+	 * The maximum number of spots applied at once while a response is read.
+	 */
+	private static final int SPOT_BATCH_SIZE = 1000;
+
 	public enum PredictSpotsActionMode
 	{
 		ENTIRE( NAME_ENTIRE, MENU_KEYS_ENTIRE ),
@@ -139,6 +162,28 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 	private int timepointEnd;
 
+	/**
+	 * Guards the graph edits from the responses and from the partial results.
+	 */
+	private final Object applyLock = new Object();
+
+	/**
+	 * Timepoints whose partial results are applied as they arrive, until their
+	 * final response has been applied.
+	 */
+	private final TIntSet pendingTimepoints = new TIntHashSet();
+
+	/**
+	 * Pending timepoints whose previous predictions have been cleared.
+	 */
+	private final TIntSet clearedTimepoints = new TIntHashSet();
+
+	/**
+	 * Identifies the partial results of the current run, or null if they are
+	 * not requested. Other clients and earlier runs publish to other jobs.
+	 */
+	private String partialResultsJobId;
+
 	/*
 	 * Command description.
 	 */
@@ -219,6 +264,27 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 				.add( JSON_KEY_USE_MEMMAP, getMainSettings().getUseMemmap() )
 				.add( JSON_KEY_BATCH_SIZE, getMainSettings().getBatchSize() )
 				.add( JSON_KEY_INPUT_SIZE, inputSize );
+		final String predictionQueue = getServerStateManager().getRabbitMQPredictionQueue();
+		final boolean isPartialResults =
+				getServerStateManager().getRabbitMQStatus() == ElephantStatus.AVAILABLE && predictionQueue != null;
+		synchronized ( applyLock )
+		{
+			partialResultsJobId = isPartialResults ? UUID.randomUUID().toString() : null;
+			if ( isPartialResults )
+			{
+				jsonRootObject
+						.add( JSON_KEY_PARTIAL_RESULTS, true )
+						.add( JSON_KEY_PARTIAL_RESULTS_JOB_ID, partialResultsJobId )
+						.add( JSON_KEY_PARTIAL_RESULTS_ROUTING_KEY, predictionQueue );
+			}
+			pendingTimepoints.clear();
+			clearedTimepoints.clear();
+			if ( isPartialResults )
+			{
+				for ( int timepoint = timepointStart; timepoint <= timepointEnd; timepoint++ )
+					pendingTimepoints.add( timepoint );
+			}
+		}
 		if ( getMainSettings().getPatch() )
 		{
 			jsonRootObject.add( JSON_KEY_PATCH, new JsonArray()
@@ -254,65 +320,381 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 	@Override
 	public void processDataset()
 	{
-		predictSpotsAt( timepointStart, timepointEnd );
+		final int pipelineSize = getMainSettings().getPredictionPipelineSize();
+		if ( 1 < pipelineSize && timepointStart < timepointEnd )
+			new PredictionPipeline( timepointStart, timepointEnd, pipelineSize ).start();
+		else
+			predictSpotsIn( timepointStart, timepointEnd );
 	}
 
-	private void predictSpotsAt( final int timepoint, final int timepointEnd )
+	/**
+	 * Predict spots at each timepoint in turn. The spots of each response are
+	 * applied in batches while the response is being read.
+	 */
+	private void predictSpotsIn( final int timepointStart, final int timepointEnd )
 	{
-		if ( timepointEnd < timepoint )
-			return;
-		jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
 		try
 		{
-			postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), jsonRootObject.toString(),
-					response -> {
-						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
-						{
-							final String body = response.getBody();
-							final JsonObject jsonRootObject = Json.parse( body ).asObject();
-							if ( Json.parse( body ).asObject().get( "completed" ).asBoolean() )
-							{
-								final RefCollection< Spot > spots = getGraph().vertices();
-								Predicate< Spot > predicate = spot -> spot.getTimepoint() == timepoint;
-								if ( mode == PredictSpotsActionMode.AROUND_MOUSE )
-									predicate = predicate.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
-								refreshLabels( spots, predicate );
-								predicate = predicate.and( spot -> getVertexTagMap( getDetectionTagSet() ).get( spot )
-										== getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME ) );
-								predicate = predicate.and( spot -> getVertexTagMap( getTrackingTagSet() ).get( spot )
-										!= getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME ) );
-								removeSpots( spots, predicate );
-								final JsonArray jsonSpots = jsonRootObject.get( "spots" ).asArray();
-								addSpotsFromJson( jsonSpots );
-								summary( timepoint );
-								showTextOverlayAnimator( String.format( "Detected at frame %d", timepoint ), 1000,
-										TextPosition.BOTTOM_RIGHT );
-							}
+			for ( int timepoint = timepointStart; timepoint <= timepointEnd; timepoint++ )
+			{
+				if ( !predictSpotsAt( timepoint ) )
+					return;
+				if ( getActionStateManager().isAborted() )
+				{
+					showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
+					return;
+				}
+			}
+		}
+		finally
+		{
+			stopPartialResults();
+		}
+	}
 
-							if ( getActionStateManager().isAborted() )
-								showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
-							else
-								predictSpotsAt( timepoint + 1, timepointEnd );
-						}
-						else
+	/**
+	 * Predict spots at the timepoint, applying them in batches of
+	 * {@link #SPOT_BATCH_SIZE} while the response is being read. Batches are
+	 * only passed on once the response is known to be completed (see
+	 * {@link SpotColumns#readBatches}), and the previous predictions at the
+	 * timepoint are cleared with the first one. A response that is not
+	 * completed leaves the graph unchanged.
+	 * 
+	 * @return true if the response was successfully processed.
+	 */
+	private boolean predictSpotsAt( final int timepoint )
+	{
+		jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
+		final boolean[] isCleared = { false };
+		final boolean[] isOk = { true };
+		try
+		{
+			final boolean isCompleted = postAsSpotBatches( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), jsonRootObject.toString(),
+					SPOT_BATCH_SIZE,
+					batch -> {
+						synchronized ( applyLock )
 						{
-							final StringBuilder sb = new StringBuilder( response.getStatusText() );
-							if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
+							if ( !isCleared[ 0 ] )
 							{
-								sb.append( ": " );
-								sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
+								finishPartialResults( timepoint );
+								clearPrediction( timepoint );
+								isCleared[ 0 ] = true;
 							}
-							showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
-							getClientLogger().severe( sb.toString() );
+							addSpots( batch, false );
 						}
+					},
+					response -> {
+						isOk[ 0 ] = false;
+						showPredictionError( response.getStatus(), response.getStatusText(), response.getContentAsString() );
 					} );
+			finishPartialResults( timepoint );
+			if ( !isOk[ 0 ] )
+				return false;
+			if ( isCompleted )
+			{
+				if ( isCleared[ 0 ] )
+					commitEdits();
+				else
+				{
+					synchronized ( applyLock )
+					{
+						clearPrediction( timepoint );
+					}
+				}
+				summary( timepoint );
+				showTextOverlayAnimator( String.format( "Detected at frame %d", timepoint ), 1000,
+						TextPosition.BOTTOM_RIGHT );
+			}
+			return true;
 		}
 		catch ( final ElephantConnectException e )
 		{
 			// already handled by UnirestMixin
+			return false;
+		}
+		catch ( final UnirestException e )
+		{
+			if ( isCleared[ 0 ] )
+				commitEdits();
+			handleRequestFailure( e );
+			return false;
+		}
+		catch ( final UncheckedIOException | IllegalArgumentException e )
+		{
+			// the batches added before the failure still get their undo point
+			if ( isCleared[ 0 ] )
+				commitEdits();
+			handleError( e );
+			showTextOverlayAnimator( "Invalid prediction response", 3000, TextPosition.CENTER );
+			return false;
+		}
+	}
+
+	/**
+	 * Apply a response from the prediction endpoint to the graph.
+	 * 
+	 * @param timepoint
+	 *            the timepoint that the response corresponds to.
+	 * @param response
+	 *            the response from the server.
+	 * @return true if the response was successfully processed.
+	 */
+	private boolean applyPrediction( final int timepoint, final HttpResponse< byte[] > response )
+	{
+		finishPartialResults( timepoint );
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+		{
+			final SpotColumns spotColumns =
+					SpotColumns.fromResponseBody( response.getHeaders().getFirst( "Content-Type" ), response.getBody() );
+			if ( spotColumns.isCompleted() )
+			{
+				synchronized ( applyLock )
+				{
+					// partial results applied so far are replaced by the final ones
+					clearPrediction( timepoint );
+					addSpots( spotColumns, true );
+				}
+				summary( timepoint );
+				showTextOverlayAnimator( String.format( "Detected at frame %d", timepoint ), 1000,
+						TextPosition.BOTTOM_RIGHT );
+			}
+			return true;
+		}
+		else
+		{
+			showPredictionError( response.getStatus(), response.getStatusText(),
+					new String( response.getBody(), StandardCharsets.UTF_8 ) );
+			return false;
 		}
 	}
 
+	private void showPredictionError( final int status, final String statusText, final String body )
+	{
+		final StringBuilder sb = new StringBuilder( statusText );
+		if ( status == HttpURLConnection.HTTP_INTERNAL_ERROR )
+		{
+			sb.append( ": " );
+			try
+			{
+				sb.append( Json.parse( body ).asObject().getString( "error", body ) );
+			}
+			catch ( final ParseException | UnsupportedOperationException e )
+			{
+				sb.append( body );
+			}
+		}
+		showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+		getClientLogger().severe( sb.toString() );
+	}
+
+	/**
+	 * Ignore the partial results for the timepoint from now on, as its final
+	 * response is being applied.
+	 */
+	private void finishPartialResults( final int timepoint )
+	{
+		synchronized ( applyLock )
+		{
+			pendingTimepoints.remove( timepoint );
+			clearedTimepoints.remove( timepoint );
+		}
+	}
+
+	/**
+	 * Reset the labels of the spots previously predicted at the timepoint and
+	 * remove the unlabeled ones, except for those approved in tracking.
+	 */
+	private void clearPrediction( final int timepoint )
+	{
+		final RefCollection< Spot > spots = getGraph().vertices();
+		Predicate< Spot > predicate = spot -> spot.getTimepoint() == timepoint;
+		if ( mode == PredictSpotsActionMode.AROUND_MOUSE )
+			predicate = predicate.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
+		refreshLabels( spots, predicate );
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final Tag detectionUnlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+		final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+		final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
+		predicate = predicate.and( spot -> tagMapDetection.get( spot ) == detectionUnlabeledTag );
+		predicate = predicate.and( spot -> tagMapTracking.get( spot ) != trackingApprovedTag );
+		removeSpots( spots, predicate );
+	}
+
+	/**
+	 * Apply a batch of spots that the server has published while predicting,
+	 * so that the spots appear before the final response arrives. The
+	 * previous predictions at the timepoint are cleared with the first batch.
+	 * A batch contains the spots of a single timepoint. Batches of another job
+	 * and batches for a timepoint whose final response has already been
+	 * applied are ignored.
+	 */
+	@Override
+	public void partialResultDelivered( final String consumerTag, final Delivery message )
+	{
+		final String jobId = message.getProperties().getCorrelationId();
+		synchronized ( applyLock )
+		{
+			if ( jobId == null || !jobId.equals( partialResultsJobId ) )
+				return;
+		}
+		final SpotColumns spotColumns = SpotColumns.fromResponseBody( message.getProperties().getContentType(), message.getBody() );
+		if ( spotColumns.size() == 0 )
+			return;
+		final SpotStruct spotRef = new SpotStruct( new double[ 3 ], new double[ 3 ][ 3 ] );
+		spotColumns.get( 0, spotRef );
+		final int timepoint = spotRef.t;
+		synchronized ( applyLock )
+		{
+			if ( !pendingTimepoints.contains( timepoint ) || getActionStateManager().isAborted()
+					|| !jobId.equals( partialResultsJobId ) )
+				return;
+			if ( clearedTimepoints.add( timepoint ) )
+				clearPrediction( timepoint );
+			addSpots( spotColumns, true );
+		}
+	}
+
+	/**
+	 * Ignore the partial results that arrive after the prediction has stopped.
+	 */
+	private void stopPartialResults()
+	{
+		synchronized ( applyLock )
+		{
+			pendingTimepoints.clear();
+			clearedTimepoints.clear();
+		}
+	}
+
+	/**
+	 * Keeps up to {@code size} prediction requests in flight while applying the
+	 * responses to the graph in timepoint order.
+	 * <p>
+	 * All the state is confined to a single worker thread: requests are
+	 * submitted from it and responses are handed over to it from the Unirest
+	 * callbacks, so the graph is edited by one thread at a time and the
+	 * callbacks never block on graph locks. Responses can arrive out of order,
+	 * so each body is buffered and applied whole, unlike in
+	 * {@link #predictSpotsAt(int)}.
+	 */
+	private class PredictionPipeline
+	{
+
+		private final int timepointEnd;
+
+		private final int size;
+
+		private final ExecutorService worker = Executors.newSingleThreadExecutor( runnable -> {
+			final Thread thread = new Thread( runnable, "elephant-predict" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+
+		private final Map< Integer, HttpResponse< byte[] > > responses = new HashMap<>();
+
+		private int nextSubmit;
+
+		private int nextApply;
+
+		private int inFlight;
+
+		private boolean isStopped;
+
+		private PredictionPipeline( final int timepointStart, final int timepointEnd, final int size )
+		{
+			this.timepointEnd = timepointEnd;
+			this.size = size;
+			nextSubmit = timepointStart;
+			nextApply = timepointStart;
+		}
+
+		private void start()
+		{
+			worker.execute( this::fill );
+		}
+
+		private void fill()
+		{
+			while ( !isStopped && inFlight < size && nextSubmit <= timepointEnd )
+			{
+				if ( getActionStateManager().isAborted() )
+				{
+					stop( "Aborted" );
+					break;
+				}
+				final int timepoint = nextSubmit++;
+				jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
+				try
+				{
+					postAsSpotsAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), jsonRootObject.toString(),
+							response -> worker.execute( () -> received( timepoint, response ) ),
+							e -> {
+								handleRequestFailure( e );
+								worker.execute( () -> received( timepoint, null ) );
+							},
+							() -> {
+								getClientLogger().info( "The request has been cancelled" );
+								worker.execute( () -> received( timepoint, null ) );
+							} );
+					inFlight++;
+				}
+				catch ( final ElephantConnectException e )
+				{
+					// already handled by UnirestMixin
+					isStopped = true;
+					stopPartialResults();
+				}
+			}
+			shutdownIfDone();
+		}
+
+		private void received( final int timepoint, final HttpResponse< byte[] > response )
+		{
+			inFlight--;
+			if ( response == null )
+			{
+				isStopped = true;
+				stopPartialResults();
+			}
+			else
+				responses.put( timepoint, response );
+			while ( !isStopped && responses.containsKey( nextApply ) )
+			{
+				try
+				{
+					if ( !applyPrediction( nextApply, responses.remove( nextApply ) ) )
+					{
+						isStopped = true;
+						stopPartialResults();
+					}
+				}
+				catch ( final RuntimeException e )
+				{
+					getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+					stop( "Failed to apply the prediction at frame " + nextApply );
+				}
+				nextApply++;
+			}
+			if ( !isStopped && getActionStateManager().isAborted() )
+				stop( "Aborted" );
+			fill();
+		}
+
+		private void stop( final String message )
+		{
+			isStopped = true;
+			stopPartialResults();
+			showTextOverlayAnimator( message, 3000, TextPosition.BOTTOM_RIGHT );
+		}
+
+		private void shutdownIfDone()
+		{
+			if ( inFlight == 0 && ( isStopped || timepointEnd < nextApply ) )
+				worker.shutdown();
+		}
+
+	}
+
 	private static enum SpotEditMode
 	{
 		SKIP,
@@ -330,11 +712,28 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 		double quality;
 
+		int id;
+
+		double sqdisp;
+
 		SpotStruct( final double[] pos, final double[][] covariance )
 		{
 			this.pos = pos;
 			this.covariance = covariance;
 		}
+
+		SpotStruct copy()
+		{
+			final double[][] covarianceCopy = new double[ 3 ][];
+			for ( int i = 0; i < 3; i++ )
+				covarianceCopy[ i ] = covariance[ i ].clone();
+			final SpotStruct spotStruct = new SpotStruct( pos.clone(), covarianceCopy );
+			spotStruct.t = t;
+			spotStruct.quality = quality;
+			spotStruct.id = id;
+			spotStruct.sqdisp = sqdisp;
+			return spotStruct;
+		}
 	}
 
 	public static void getNextFromJson( final SpotStruct jsonRef, final JsonObject jsonObject )
@@ -363,6 +762,8 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 		map.put( getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME ), getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME ) );
 		map.put( getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ), getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) );
 
+		final TagSet detectionTagSet = getDetectionTagSet();
+		final TimepointTagCounts tagCounts = TimepointTagCounts.of( getModel() );
 		getGraph().getLock().writeLock().lock();
 		getActionStateManager().setWriting( true );
 		try
@@ -371,9 +772,9 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 			{
 				if ( filter == null || filter.test( spot ) )
 				{
-					final Tag currentTag = getVertexTagMap( getDetectionTagSet() ).get( spot );
+					final Tag currentTag = getVertexTagMap( detectionTagSet ).get( spot );
 					if ( map.containsKey( currentTag ) )
-						getVertexTagMap( getDetectionTagSet() ).set( spot, map.get( currentTag ) );
+						tagCounts.setTag( detectionTagSet, spot, map.get( currentTag ) );
 				}
 			}
 		}
@@ -384,39 +785,58 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 		}
 	}
 
-	private void addSpotsFromJson( final JsonArray jsonSpots )
+	/**
+	 * Add spots from the server response to the graph in two phases.
+	 * <p>
+	 * The first phase decides an edit (relabel, create or refit) for each spot
+	 * under the read lock. The second phase commits all the edits in a single
+	 * write-lock section, followed by a single undo point and a single graph
+	 * change notification unless more batches of the same response follow
+	 * (see {@link #commitEdits()}). Spots to be created are suppressed against each
+	 * other as well as against the existing spots, and the existing spots to be
+	 * edited are skipped if they have been changed or removed in between.
+	 * 
+	 * @param spotColumns
+	 *            spots from the server response.
+	 * @param isLastBatch
+	 *            false to leave the undo point and the notification to
+	 *            {@link #commitEdits()} after the last batch.
+	 */
+	private void addSpots( final SpotColumns spotColumns, final boolean isLastBatch )
 	{
-		getGraph().getLock().readLock().lock();
-		try
-		{
-			final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
-			final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+		final long startTime = System.currentTimeMillis();
+		final List< SpotSnapshot > relabelSnapshots = new ArrayList<>();
+		final List< Tag > relabelTags = new ArrayList<>();
+		final List< SpotSnapshot > refitSnapshots = new ArrayList<>();
+		final List< SpotStruct > refitStructs = new ArrayList<>();
+		final List< SpotStruct > createStructs = new ArrayList<>();
+		final Map< Integer, PositionGrid > createdPositions = new HashMap<>();
+		final double suppressionDistance = getMainSettings().getSuppressionDistance();
 
-			final DetectionQualityFeature qualityFeature =
-					DetectionQualityFeature.getOrRegister(
-							getModel().getFeatureModel(),
-							getGraph().vertices().getRefPool() );
+		final Tag tpTag = getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME );
+		final Tag fpTag = getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME );
+		final Tag fbTag = getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME );
+		final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+		final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
 
-			final Spot ref = getGraph().vertexRef();
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
 
-			final double[] pos = new double[ 3 ];
+		getGraph().getLock().readLock().lock();
+		try
+		{
 			final double[][] covariance = new double[ 3 ][ 3 ];
-			final SpotStruct jsonRef = new SpotStruct( pos, covariance );
-
-			final Tag tpTag = getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME );
-			final Tag fpTag = getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME );
-			final Tag fbTag = getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME );
-			final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
-			final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
-			for ( final JsonValue jsonValue : jsonSpots )
+			final SpotStruct spotRef = new SpotStruct( new double[ 3 ], new double[ 3 ][ 3 ] );
+			for ( int index = 0; index < spotColumns.size(); index++ )
 			{
-				getNextFromJson( jsonRef, jsonValue.asObject() );
-				final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( jsonRef.t );
+				spotColumns.get( index, spotRef );
+				final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( spotRef.t );
 				final NearestNeighborSearch< Spot > nns = spatialIndex.getNearestNeighborSearch();
-				nns.search( new RealPoint( jsonRef.pos ) );
+				nns.search( new RealPoint( spotRef.pos ) );
 				final Spot nearestSpot = nns.getSampler().get();
 				SpotEditMode editMode = SpotEditMode.CREATE;
-				if ( nns.getDistance() < getMainSettings().getSuppressionDistance() )
+				if ( nns.getDistance() < suppressionDistance )
 				{
 					final Tag tag = tagMapDetection.get( nearestSpot );
 					if ( tag != null )
@@ -425,13 +845,16 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 						switch ( tag.label() )
 						{
 						case DETECTION_FN_TAG_NAME:
-							tagMapDetection.set( nearestSpot, tpTag );
+							relabelSnapshots.add( new SpotSnapshot( nearestSpot, tag ) );
+							relabelTags.add( tpTag );
 							break;
 						case DETECTION_TN_TAG_NAME:
-							tagMapDetection.set( nearestSpot, fpTag );
+							relabelSnapshots.add( new SpotSnapshot( nearestSpot, tag ) );
+							relabelTags.add( fpTag );
 							break;
 						case DETECTION_TB_TAG_NAME:
-							tagMapDetection.set( nearestSpot, fbTag );
+							relabelSnapshots.add( new SpotSnapshot( nearestSpot, tag ) );
+							relabelTags.add( fbTag );
 							break;
 						case DETECTION_UNLABELED_TAG_NAME:
 							final Tag tagTracking = tagMapTracking.get( nearestSpot );
@@ -439,7 +862,7 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 							{
 								nearestSpot.getCovariance( covariance );
 								// if the new spot has the greater volume than the nearest spot
-								if ( 0 < compareVolume( jsonRef.covariance, covariance ) )
+								if ( 0 < compareVolume( spotRef.covariance, covariance ) )
 									editMode = SpotEditMode.REFIT;
 							}
 							break;
@@ -453,47 +876,24 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 						editMode = SpotEditMode.SKIP;
 					}
 				}
+				if ( editMode == SpotEditMode.CREATE )
+				{
+					// new spots are not in the spatial index until they are committed
+					final PositionGrid positions =
+							createdPositions.computeIfAbsent( spotRef.t, t -> new PositionGrid( suppressionDistance ) );
+					if ( positions.hasWithin( spotRef.pos ) )
+						editMode = SpotEditMode.SKIP;
+					else
+						positions.add( spotRef.pos.clone() );
+				}
 				switch ( editMode )
 				{
 				case CREATE:
-					getGraph().getLock().readLock().unlock();
-					getGraph().getLock().writeLock().lock();
-					getActionStateManager().setWriting( true );
-					try
-					{
-						final Spot spot = getGraph().addVertex( ref ).init( jsonRef.t, jsonRef.pos, jsonRef.covariance );
-						tagMapDetection.set( spot, unlabeledTag );
-						tagMapTracking.set( spot, trackingUnlabeledTag );
-						if (qualityFeature != null) {
-							qualityFeature.set(spot, jsonRef.quality);
-						}
-						getGraph().getLock().readLock().lock();
-					}
-					finally
-					{
-						getActionStateManager().setWriting( false );
-						getGraph().getLock().writeLock().unlock();
-					}
+					createStructs.add( spotRef.copy() );
 					break;
 				case REFIT:
-					getGraph().getLock().readLock().unlock();
-					getGraph().getLock().writeLock().lock();
-					getActionStateManager().setWriting( true );
-					try
-					{
-						ref.refTo( nearestSpot );
-						ref.setPosition( jsonRef.pos );
-						ref.setCovariance( jsonRef.covariance );
-						if (qualityFeature != null) {
-							qualityFeature.set(ref, jsonRef.quality);
-						}
-						getGraph().getLock().readLock().lock();
-					}
-					finally
-					{
-						getActionStateManager().setWriting( false );
-						getGraph().getLock().writeLock().unlock();
-					}
+					refitSnapshots.add( new SpotSnapshot( nearestSpot, unlabeledTag ) );
+					refitStructs.add( spotRef.copy() );
 					break;
 				case SKIP:
 					break;
@@ -501,19 +901,218 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 					throw new RuntimeException( "editMode is invalid: " + editMode );
 				}
 			}
+		}
+		catch ( final Exception e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			return;
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+		final long decidedTime = System.currentTimeMillis();
 
-			getGraph().releaseRef( ref );
+		int nRelabeled = 0;
+		int nRefitted = 0;
+		final TimepointTagCounts tagCounts = TimepointTagCounts.of( getModel() );
+		getGraph().getLock().writeLock().lock();
+		getActionStateManager().setWriting( true );
+		final Spot ref = getGraph().vertexRef();
+		try
+		{
+			final DetectionQualityFeature qualityFeature =
+					DetectionQualityFeature.getOrRegister(
+							getModel().getFeatureModel(),
+							getGraph().vertices().getRefPool() );
+			for ( int i = 0; i < relabelSnapshots.size(); i++ )
+			{
+				final Spot spot = relabelSnapshots.get( i ).resolve( ref, tagMapDetection );
+				if ( spot != null )
+				{
+					tagCounts.setTag( getDetectionTagSet(), spot, relabelTags.get( i ) );
+					nRelabeled++;
+				}
+			}
+			for ( int i = 0; i < refitSnapshots.size(); i++ )
+			{
+				final Spot spot = refitSnapshots.get( i ).resolve( ref, tagMapDetection );
+				if ( spot == null || tagMapTracking.get( spot ) == trackingApprovedTag )
+					continue;
+				final SpotStruct spotStruct = refitStructs.get( i );
+				spot.setPosition( spotStruct.pos );
+				spot.setCovariance( spotStruct.covariance );
+				if ( qualityFeature != null )
+					qualityFeature.set( spot, spotStruct.quality );
+				nRefitted++;
+			}
+			for ( final SpotStruct spotStruct : createStructs )
+			{
+				final Spot spot = getGraph().addVertex( ref ).init( spotStruct.t, spotStruct.pos, spotStruct.covariance );
+				tagCounts.setTag( getDetectionTagSet(), spot, unlabeledTag );
+				tagCounts.setTag( getTrackingTagSet(), spot, trackingUnlabeledTag );
+				if ( qualityFeature != null )
+					qualityFeature.set( spot, spotStruct.quality );
+			}
 		}
 		catch ( final Exception e )
 		{
 			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
 		}
 		finally
+		{
+			getGraph().releaseRef( ref );
+			if ( isLastBatch )
+				getModel().setUndoPoint();
+			getActionStateManager().setWriting( false );
+			getGraph().getLock().writeLock().unlock();
+			if ( isLastBatch )
+				notifyGraphChanged();
+		}
+		final long committedTime = System.currentTimeMillis();
+		getClientLogger().info( String.format(
+				"%d spots processed: decide %d ms, commit %d ms (created: %d, refitted: %d, relabeled: %d)",
+				spotColumns.size(), decidedTime - startTime, committedTime - decidedTime,
+				createStructs.size(), nRefitted, nRelabeled ) );
+	}
+
+	/**
+	 * Positions hashed into cubic cells as large as the suppression distance,
+	 * so that a position is only compared with those in the 27 cells around
+	 * it.
+	 */
+	private static class PositionGrid
+	{
+
+		private final double distance;
+
+		private final TLongObjectMap< List< double[] > > cells = new TLongObjectHashMap<>();
+
+		private PositionGrid( final double distance )
+		{
+			this.distance = distance;
+		}
+
+		private void add( final double[] pos )
+		{
+			if ( distance <= 0 )
+				return;
+			final long key = key( cell( pos[ 0 ] ), cell( pos[ 1 ] ), cell( pos[ 2 ] ) );
+			List< double[] > positions = cells.get( key );
+			if ( positions == null )
+			{
+				positions = new ArrayList<>();
+				cells.put( key, positions );
+			}
+			positions.add( pos );
+		}
+
+		/**
+		 * @return true if a position closer than the distance has been added.
+		 */
+		private boolean hasWithin( final double[] pos )
+		{
+			if ( distance <= 0 )
+				return false;
+			final double sqDistance = distance * distance;
+			final long cx = cell( pos[ 0 ] );
+			final long cy = cell( pos[ 1 ] );
+			final long cz = cell( pos[ 2 ] );
+			for ( long x = cx - 1; x <= cx + 1; x++ )
+			{
+				for ( long y = cy - 1; y <= cy + 1; y++ )
+				{
+					for ( long z = cz - 1; z <= cz + 1; z++ )
+					{
+						final List< double[] > positions = cells.get( key( x, y, z ) );
+						if ( positions == null )
+							continue;
+						for ( final double[] other : positions )
+						{
+							double sum = 0;
+							for ( int d = 0; d < 3; d++ )
+							{
+								final double diff = pos[ d ] - other[ d ];
+								sum += diff * diff;
+							}
+							if ( sum < sqDistance )
+								return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		private long cell( final double coordinate )
+		{
+			return ( long ) Math.floor( coordinate / distance );
+		}
+
+		/**
+		 * Packs 21 bits per axis. Cells that collide beyond that range are
+		 * told apart by the distance check.
+		 */
+		private static long key( final long x, final long y, final long z )
+		{
+			return ( ( x & 0x1fffffL ) << 42 ) | ( ( y & 0x1fffffL ) << 21 ) | ( z & 0x1fffffL );
+		}
+	}
+
+	/**
+	 * The state of an existing spot when its edit was decided. Pool indices
+	 * are reused by Mastodon, so the spot is resolved again under the write
+	 * lock and only edited if it still has the same timepoint, position and
+	 * detection tag.
+	 */
+	private class SpotSnapshot
+	{
+		private final int poolIndex;
+
+		private final int timepoint;
+
+		private final double[] pos = new double[ 3 ];
+
+		private final Tag tag;
+
+		private SpotSnapshot( final Spot spot, final Tag tag )
+		{
+			poolIndex = spot.getInternalPoolIndex();
+			timepoint = spot.getTimepoint();
+			spot.localize( pos );
+			this.tag = tag;
+		}
+
+		private Spot resolve( final Spot ref, final ObjTagMap< Spot, Tag > tagMap )
+		{
+			final Spot spot = getVertexByPoolIndex( poolIndex, ref );
+			if ( spot == null || spot.getTimepoint() != timepoint || tagMap.get( spot ) != tag )
+				return null;
+			for ( int d = 0; d < 3; d++ )
+			{
+				if ( spot.getDoublePosition( d ) != pos[ d ] )
+					return null;
+			}
+			return spot;
+		}
+	}
+
+	/**
+	 * Set a single undo point and notify the graph change once all the
+	 * batches of a response have been added.
+	 */
+	private void commitEdits()
+	{
+		getGraph().getLock().writeLock().lock();
+		try
 		{
 			getModel().setUndoPoint();
-			getGraph().getLock().readLock().unlock();
-			notifyGraphChanged();
 		}
+		finally
+		{
+			getGraph().getLock().writeLock().unlock();
+		}
+		notifyGraphChanged();
 	}
 
 	private void summary( final int timepoint )
@@ -521,22 +1120,17 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 		getGraph().getLock().readLock().lock();
 		try
 		{
+			final TagSet tagSet = getDetectionTagSet();
+			final Map< Tag, Integer > counts = TimepointTagCounts.of( getModel() ).getCounts( tagSet, timepoint );
 			getClientLogger().info( String.format( "FRAME: %d, TP: %d, FP: %d, TN: %d, FN: %d, TB: %d, FB: %d, unlabeled: %d",
 					timepoint,
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME ) ).stream()
-							.filter( s -> s.getTimepoint() == timepoint ).count() ) );
+					counts.get( getTag( tagSet, DETECTION_TP_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_FP_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_TN_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_FN_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_TB_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_FB_TAG_NAME ) ),
+					counts.get( getTag( tagSet, DETECTION_UNLABELED_TAG_NAME ) ) ) );
 		}
 		finally
 		{
@@ -32,6 +32,7 @@ package org.elephant.actions;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.SSLContext;
@@ -43,14 +44,18 @@ import org.scijava.listeners.Listeners;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.ParseException;
 import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DeliverCallback;
 import com.rabbitmq.client.ExceptionHandler;
-import com.rabbitmq.client.TopologyRecoveryException;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.impl.ForgivingExceptionHandler;
+import com.rabbitmq.client.impl.recovery.AutorecoveringConnection;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
 
@@ -71,7 +76,19 @@ public class RabbitMQService extends AbstractElephantService
 
 	private static final String RABBITMQ_QUEUE_LOG = "log";
 
-	private Connection connection;
+	/**
+	 * A non-durable fanout exchange to which the server publishes a JSON
+	 * object with its "gpus" when its status changes.
+	 */
+	private static final String RABBITMQ_EXCHANGE_STATUS = "status";
+
+	private static final int RABBITMQ_HEARTBEAT_SECONDS = 30;
+
+	private static final long RABBITMQ_RECOVERY_INTERVAL = 5000;
+
+	private volatile Connection connection;
+
+	private String connectionKey;
 
 	private Channel channel;
 
@@ -79,13 +96,21 @@ public class RabbitMQService extends AbstractElephantService
 
 	private final Listeners.List< RabbitMQDatasetListener > rabbitMQDatasetListeners;
 
-	private final ExceptionHandler emptyExceptionHandler = new EmptyExceptionHander();
+	private final Listeners.List< RabbitMQServerStatusListener > rabbitMQServerStatusListeners;
+
+	private final Listeners.List< RabbitMQPredictionListener > rabbitMQPredictionListeners;
+
+	private final ExceptionHandler exceptionHandler = new LoggingExceptionHandler();
+
+	private final Object statusLock = new Object();
 
 	public RabbitMQService()
 	{
 		super();
 		rabbitMQStatusListeners = new Listeners.SynchronizedList<>();
 		rabbitMQDatasetListeners = new Listeners.SynchronizedList<>();
+		rabbitMQServerStatusListeners = new Listeners.SynchronizedList<>();
+		rabbitMQPredictionListeners = new Listeners.SynchronizedList<>();
 	}
 
 	private ConnectionFactory getBaseConnectionFactory() throws KeyManagementException, NoSuchAlgorithmException
@@ -102,62 +127,109 @@ public class RabbitMQService extends AbstractElephantService
 		factory.setVirtualHost( getServerSettings().getRabbitMQVirtualHost() );
 		factory.setUsername( getServerSettings().getRabbitMQUsername() );
 		factory.setPassword( getServerSettings().getRabbitMQPassword() );
-		factory.setRequestedHeartbeat( 0 );
+		factory.setRequestedHeartbeat( RABBITMQ_HEARTBEAT_SECONDS );
+		factory.setAutomaticRecoveryEnabled( true );
+		factory.setTopologyRecoveryEnabled( true );
+		factory.setNetworkRecoveryInterval( RABBITMQ_RECOVERY_INTERVAL );
+		factory.setExceptionHandler( exceptionHandler );
 		return factory;
 	}
 
+	/**
+	 * Open a connection and keep it. Once opened, the connection recovers
+	 * itself after a network failure and its status is tracked by its
+	 * listeners. A new connection is only opened if the first attempt failed
+	 * or the RabbitMQ settings have changed.
+	 */
 	public void start()
 	{
 		new Thread( () -> {
 			while ( true )
 			{
-				boolean isAvailable = false;
-				try
+				if ( connection != null && !getConnectionKey().equals( connectionKey ) )
 				{
-					ConnectionFactory factory = getBaseConnectionFactory();
-					factory.setExceptionHandler( emptyExceptionHandler );
-
-					try ( final Connection tempConnection = factory.newConnection() )
+					closeConnection();
+				}
+				if ( connection == null )
+				{
+					try
 					{
-						if ( connection == null )
-						{
-							openConnection();
-						}
-						isAvailable = true;
-						getServerStateManager().setRabbitMQErrorMessage( ElephantServerStateManager.NO_ERROR_MESSAGE );
+						openConnection();
+						updateStatus( ElephantStatus.AVAILABLE, ElephantServerStateManager.NO_ERROR_MESSAGE );
 					}
-					catch ( IOException | TimeoutException e )
+					catch ( IOException | TimeoutException | KeyManagementException | NoSuchAlgorithmException e )
 					{
-						getServerStateManager().setRabbitMQErrorMessage( e.getMessage() );
 						closeConnection();
+						updateStatus( ElephantStatus.UNAVAILABLE, String.valueOf( e.getMessage() ) );
 					}
 				}
-				catch ( KeyManagementException | NoSuchAlgorithmException e )
+				try
 				{
-					getServerStateManager().setRabbitMQErrorMessage( e.getMessage() );
+					Thread.sleep( RABBITMQ_RECOVERY_INTERVAL );
 				}
-				finally
+				catch ( final InterruptedException e )
 				{
-					final ElephantStatus rabbitMQStatus = isAvailable ? ElephantStatus.AVAILABLE : ElephantStatus.UNAVAILABLE;
-					getServerStateManager().setRabbitMQStatus( rabbitMQStatus );
-					rabbitMQStatusListeners.list.forEach( l -> l.rabbitMQStatusUpdated() );
-					try
-					{
-						Thread.sleep( 1000 );
-					}
-					catch ( final InterruptedException e )
-					{
-						getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
-					}
+					getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
 				}
 			}
 		} ).start();
 	}
 
+	/**
+	 * Set the RabbitMQ status, notifying the listeners only if the status or
+	 * the error message has changed.
+	 */
+	private void updateStatus( final ElephantStatus status, final String errorMessage )
+	{
+		synchronized ( statusLock )
+		{
+			if ( getServerStateManager().getRabbitMQStatus() == status
+					&& errorMessage.equals( getServerStateManager().getRabbitMQErrorMessage() ) )
+				return;
+			getServerStateManager().setRabbitMQErrorMessage( errorMessage );
+			getServerStateManager().setRabbitMQStatus( status );
+		}
+		rabbitMQStatusListeners.list.forEach( l -> l.rabbitMQStatusUpdated() );
+	}
+
+	/**
+	 * Identifies the broker and the account of a connection.
+	 */
+	private String getConnectionKey()
+	{
+		return String.join( "|",
+				String.valueOf( getServerSettings().getUseSslProtocol() ),
+				String.valueOf( getServerSettings().getVerifySSL() ),
+				getServerSettings().getRabbitMQHost(),
+				String.valueOf( getServerSettings().getRabbitMQPort() ),
+				getServerSettings().getRabbitMQVirtualHost(),
+				getServerSettings().getRabbitMQUsername(),
+				getServerSettings().getRabbitMQPassword() );
+	}
+
 	private synchronized void openConnection() throws IOException, TimeoutException, KeyManagementException, NoSuchAlgorithmException
 	{
 		final ConnectionFactory factory = getBaseConnectionFactory();
+		connectionKey = getConnectionKey();
 		connection = factory.newConnection();
+		connection.addShutdownListener( cause -> {
+			if ( !cause.isInitiatedByApplication() )
+				updateStatus( ElephantStatus.UNAVAILABLE, String.valueOf( cause.getMessage() ) );
+		} );
+		( ( Recoverable ) connection ).addRecoveryListener( new RecoveryListener()
+		{
+
+			@Override
+			public void handleRecovery( final Recoverable recoverable )
+			{
+				updateStatus( ElephantStatus.AVAILABLE, ElephantServerStateManager.NO_ERROR_MESSAGE );
+			}
+
+			@Override
+			public void handleRecoveryStarted( final Recoverable recoverable )
+			{}
+
+		} );
 		channel = connection.createChannel();
 		// RABBITMQ_QUEUE_UPDATE
 		channel.queueDeclare( RABBITMQ_QUEUE_UPDATE, false, false, false, null );
@@ -201,12 +273,45 @@ public class RabbitMQService extends AbstractElephantService
 			}
 		};
 		channel.basicConsume( RABBITMQ_QUEUE_LOG, true, callbackLog, consumerTag -> {} );
+		// partial prediction results are routed to an exclusive queue of this
+		// client, whose name is sent with the prediction requests
+		final String predictionQueue = channel.queueDeclare().getQueue();
+		final DeliverCallback callbackPrediction = ( consumerTag, delivery ) -> {
+			rabbitMQPredictionListeners.list.forEach( l -> l.partialResultDelivered( consumerTag, delivery ) );
+		};
+		channel.basicConsume( predictionQueue, true, callbackPrediction, consumerTag -> {} );
+		getServerStateManager().setRabbitMQPredictionQueue( predictionQueue );
+		// a server-named queue gets a new name when it is recovered
+		( ( AutorecoveringConnection ) connection ).addQueueRecoveryListener( ( oldName, newName ) -> {
+			if ( oldName.equals( getServerStateManager().getRabbitMQPredictionQueue() ) )
+				getServerStateManager().setRabbitMQPredictionQueue( newName );
+		} );
+		// RABBITMQ_EXCHANGE_STATUS
+		channel.exchangeDeclare( RABBITMQ_EXCHANGE_STATUS, BuiltinExchangeType.FANOUT );
+		final String statusQueue = channel.queueDeclare().getQueue();
+		channel.queueBind( statusQueue, RABBITMQ_EXCHANGE_STATUS, "" );
+		final DeliverCallback callbackStatus = ( consumerTag, delivery ) -> {
+			final List< GPU > gpus;
+			try
+			{
+				final String body = new String( delivery.getBody(), "UTF-8" );
+				gpus = GPU.fromJson( Json.parse( body ).asObject().get( "gpus" ).asArray() );
+			}
+			catch ( final ParseException | UnsupportedOperationException | NullPointerException e )
+			{
+				getClientLogger().warning( "Invalid status message: " + e.getMessage() );
+				return;
+			}
+			rabbitMQServerStatusListeners.list.forEach( l -> l.serverStatusPushed( gpus ) );
+		};
+		channel.basicConsume( statusQueue, true, callbackStatus, consumerTag -> {} );
 	}
 
 	private synchronized void closeConnection()
 	{
 		if ( connection != null )
 		{
+			getServerStateManager().setRabbitMQPredictionQueue( null );
 			try
 			{
 				connection.close();
@@ -232,41 +337,28 @@ public class RabbitMQService extends AbstractElephantService
 		return rabbitMQDatasetListeners;
 	}
 
-	private class EmptyExceptionHander implements ExceptionHandler
+	public Listeners< RabbitMQServerStatusListener > rabbitMQServerStatusListeners()
 	{
+		return rabbitMQServerStatusListeners;
+	}
 
-		@Override
-		public void handleUnexpectedConnectionDriverException( Connection conn, Throwable exception )
-		{}
-
-		@Override
-		public void handleReturnListenerException( Channel channel, Throwable exception )
-		{}
-
-		@Override
-		public void handleConfirmListenerException( Channel channel, Throwable exception )
-		{}
-
-		@Override
-		public void handleBlockedListenerException( Connection connection, Throwable exception )
-		{}
-
-		@Override
-		public void handleConsumerException( Channel channel, Throwable exception, Consumer consumer, String consumerTag,
-				String methodName )
-		{}
-
-		@Override
-		public void handleConnectionRecoveryException( Connection conn, Throwable exception )
-		{}
+	public Listeners< RabbitMQPredictionListener > rabbitMQPredictionListeners()
+	{
+		return rabbitMQPredictionListeners;
+	}
 
-		@Override
-		public void handleChannelRecoveryException( Channel ch, Throwable exception )
-		{}
+	/**
+	 * Log connection errors at a fine level instead of printing them, as the
+	 * connection recovers itself and its status is shown in the control panel.
+	 */
+	private class LoggingExceptionHandler extends ForgivingExceptionHandler
+	{
 
 		@Override
-		public void handleTopologyRecoveryException( Connection conn, Channel ch, TopologyRecoveryException exception )
-		{}
+		protected void log( final String message, final Throwable e )
+		{
+			getClientLogger().fine( message + ": " + e.getMessage() );
+		}
 
 	}
 }
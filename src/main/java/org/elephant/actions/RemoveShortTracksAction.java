@@ -38,9 +38,7 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefCollections;
-import org.mastodon.collection.RefList;
 import org.mastodon.collection.RefSet;
-import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
@@ -120,14 +118,16 @@ public class RemoveShortTracksAction extends AbstractElephantAction
 			final Tag detectionUnlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
 			final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
 			final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+			final LineageWalker walker = new LineageWalker( getGraph() );
 			for ( final Spot spot : rootSpots )
 			{
 				final RefSet< Spot > spotsInTrack = RefCollections.createRefSet( spots );
 				final int startTimepoint = spot.getTimepoint();
-				if ( !shouldKeep( spot, spotsInTrack, tagMapDetection, tagMapTracking,
+				if ( !shouldKeep( walker, spot, spotsInTrack, tagMapDetection, tagMapTracking,
 						detectionUnlabeledTag, trackingApprovedTag, trackingUnlabeledTag, startTimepoint, minLinks ) )
 					toRemove.addAll( spotsInTrack );
 			}
+			walker.release();
 			for ( final Spot spot : toRemove )
 				getGraph().remove( spot );
 		}
@@ -141,7 +141,8 @@ public class RemoveShortTracksAction extends AbstractElephantAction
 	}
 
 	private boolean shouldKeep(
-			final Spot spot,
+			final LineageWalker walker,
+			final Spot root,
 			final RefCollection< Spot > spotsInTrack,
 			final ObjTagMap< Spot, Tag > tagMapDetection,
 			final ObjTagMap< Spot, Tag > tagMapTracking,
@@ -151,22 +152,16 @@ public class RemoveShortTracksAction extends AbstractElephantAction
 			final int startTimepoint,
 			final int minLinks )
 	{
-		if ( ( tagMapTracking.get( spot ) == trackingApprovedTag ) ||
-				( minLinks <= spot.getTimepoint() - startTimepoint ) )
-			return true;
-		if ( ( tagMapDetection.get( spot ) == detectionUnlabeledTag ) &&
-				( tagMapTracking.get( spot ) == trackingUnlabeledTag ) )
-			spotsInTrack.add( spot );
-		final RefList< Link > outgoingEdges = RefCollections.createRefList( getGraph().edges() );
-		for ( final Link edge : spot.outgoingEdges() )
-			outgoingEdges.add( edge );
-		for ( final Link edge : outgoingEdges )
-		{
-			if ( shouldKeep( edge.getTarget( spot ), spotsInTrack, tagMapDetection, tagMapTracking,
-					detectionUnlabeledTag, trackingApprovedTag, trackingUnlabeledTag, startTimepoint, minLinks ) )
-				return true;
-		}
-		return false;
+		// the track is kept if the walk is stopped
+		return !walker.walk( root, 0, ( spot, state ) -> {
+			if ( ( tagMapTracking.get( spot ) == trackingApprovedTag ) ||
+					( minLinks <= spot.getTimepoint() - startTimepoint ) )
+				return LineageWalker.STOP;
+			if ( ( tagMapDetection.get( spot ) == detectionUnlabeledTag ) &&
+					( tagMapTracking.get( spot ) == trackingUnlabeledTag ) )
+				spotsInTrack.add( spot );
+			return state;
+		} );
 	}
 
 }
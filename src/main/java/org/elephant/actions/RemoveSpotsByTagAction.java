@@ -39,6 +39,7 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
 import org.mastodon.model.tag.TagSetStructure.TagSet;
 
@@ -121,7 +122,9 @@ public class RemoveSpotsByTagAction extends AbstractElephantAction
 		if ( tagSetName.get() != null && tagName.get() != null )
 		{
 			final TagSet tagSet = getTagSetByName( tagSetName.get() );
-			final Predicate< Spot > spotFilter = spot -> getVertexTagMap( tagSet ).get( spot ) == getTag( tagSet, tagName.get() );
+			final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( tagSet );
+			final Tag tag = getTag( tagSet, tagName.get() );
+			final Predicate< Spot > spotFilter = spot -> tagMap.get( spot ) == tag;
 			removeSpots( getGraph().vertices(), spotFilter );
 			getModel().setUndoPoint();
 		}
@@ -41,6 +41,8 @@ import org.elephant.actions.mixins.WindowManagerMixin;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure.Tag;
 
 /**
  * Remove the spots in the visible area in the target BDV window.
@@ -102,10 +104,12 @@ public class RemoveVisibleSpotsAction extends AbstractElephantAction
 						final RefCollection< Spot > refSet = RefCollections.createRefSet( getGraph().vertices() );
 						for ( final Spot spot : spots )
 							refSet.add( spot );
-						Predicate< Spot > spotFilter = spot -> getVertexTagMap( getDetectionTagSet() ).get( spot )
-								== getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
-						spotFilter = spotFilter.and( spot -> getVertexTagMap( getTrackingTagSet() ).get( spot )
-								== getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME ) );
+						final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+						final Tag detectionUnlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+						final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+						final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+						Predicate< Spot > spotFilter = spot -> tagMapDetection.get( spot ) == detectionUnlabeledTag;
+						spotFilter = spotFilter.and( spot -> tagMapTracking.get( spot ) == trackingUnlabeledTag );
 						removeSpots( refSet, spotFilter );
 					}
 				}
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of request bodies.
+ * 
+ * @author Ko Sugawara
+ */
+public final class RequestCompression
+{
+
+	public static final String ENCODING = "gzip";
+
+	/**
+	 * Bodies smaller than this are sent as they are.
+	 */
+	public static final int MIN_BYTES = 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * @return true if the server advertises gzip in an {@code Accept-Encoding}
+	 *         header value.
+	 */
+	public static boolean isAccepted( final String acceptEncoding )
+	{
+		if ( acceptEncoding == null )
+			return false;
+		for ( final String coding : acceptEncoding.split( "," ) )
+		{
+			final String[] params = coding.trim().split( ";" );
+			if ( ENCODING.equalsIgnoreCase( params[ 0 ].trim() ) )
+				return params.length < 2 || !params[ 1 ].trim().matches( "q=0(\\.0*)?" );
+		}
+		return false;
+	}
+
+	public static byte[] gzip( final byte[] data, final int level ) throws IOException
+	{
+		return gzip( ByteBuffer.wrap( data ), level );
+	}
+
+	/**
+	 * Compress the remaining bytes of the buffer, which may be a mapped file
+	 * region. The position of the buffer is not changed.
+	 */
+	public static byte[] gzip( final ByteBuffer data, final int level ) throws IOException
+	{
+		final ByteBuffer source = data.duplicate();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( Math.max( 32, source.remaining() / 4 ) );
+		try (final OutputStream out = new LeveledGZIPOutputStream( bytes, level ))
+		{
+			final byte[] buffer = new byte[ Math.min( BUFFER_SIZE, Math.max( 1, source.remaining() ) ) ];
+			while ( source.hasRemaining() )
+			{
+				final int n = Math.min( buffer.length, source.remaining() );
+				source.get( buffer, 0, n );
+				out.write( buffer, 0, n );
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static class LeveledGZIPOutputStream extends GZIPOutputStream
+	{
+		private LeveledGZIPOutputStream( final OutputStream out, final int level ) throws IOException
+		{
+			super( out, BUFFER_SIZE );
+			def.setLevel( level );
+		}
+	}
+
+	private RequestCompression()
+	{
+		throw new AssertionError();
+	}
+
+}
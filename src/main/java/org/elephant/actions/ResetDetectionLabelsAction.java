@@ -94,6 +94,7 @@ public class ResetDetectionLabelsAction extends AbstractElephantDatasetAction
 						response -> {
 							if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 							{
+								DetectionLabelSync.of( getModel() ).reset();
 								showTextOverlayAnimator( "Detection labels are reset", 3000, TextOverlayAnimator.TextPosition.CENTER );
 							}
 							else
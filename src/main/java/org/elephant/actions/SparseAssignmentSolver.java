@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * A solver for the sparse rectangular linear assignment problem.
+ * <p>
+ * Each row is assigned to a distinct column so that the sum of the costs is
+ * minimized. Only the (row, column) pairs added with
+ * {@link #addCost(int, int, double)} are admissible. The solver uses the
+ * shortest augmenting path method of Jonker and Volgenant with column and row
+ * potentials, visiting only the admissible pairs, so the cost of each
+ * augmentation depends on the number of candidates rather than on the size of
+ * the dense matrix.
+ * 
+ * @author Ko Sugawara
+ */
+public class SparseAssignmentSolver
+{
+
+	private final int nRows;
+
+	private final int nCols;
+
+	private final TIntArrayList tripletRows = new TIntArrayList();
+
+	private final TIntArrayList tripletCols = new TIntArrayList();
+
+	private final TDoubleArrayList tripletCosts = new TDoubleArrayList();
+
+	public SparseAssignmentSolver( final int nRows, final int nCols )
+	{
+		this.nRows = nRows;
+		this.nCols = nCols;
+	}
+
+	/**
+	 * Add an admissible (row, column) pair.
+	 * 
+	 * @param row
+	 *            the row index.
+	 * @param col
+	 *            the column index.
+	 * @param cost
+	 *            the non-negative cost of assigning the row to the column.
+	 */
+	public void addCost( final int row, final int col, final double cost )
+	{
+		if ( row < 0 || nRows <= row || col < 0 || nCols <= col )
+			throw new IndexOutOfBoundsException( String.format( "(%d, %d) is out of bounds", row, col ) );
+		if ( cost < 0 )
+			throw new IllegalArgumentException( "cost should be non-negative: " + cost );
+		tripletRows.add( row );
+		tripletCols.add( col );
+		tripletCosts.add( cost );
+	}
+
+	/**
+	 * Solve the assignment problem.
+	 * 
+	 * @return the column assigned to each row.
+	 * @throws IllegalStateException
+	 *             if some row cannot be assigned.
+	 */
+	public int[] solve()
+	{
+		// compressed sparse rows
+		final int[] rowStart = new int[ nRows + 1 ];
+		for ( int k = 0; k < tripletRows.size(); k++ )
+			rowStart[ tripletRows.get( k ) + 1 ]++;
+		for ( int i = 0; i < nRows; i++ )
+			rowStart[ i + 1 ] += rowStart[ i ];
+		final int[] fill = Arrays.copyOf( rowStart, nRows );
+		final int[] cols = new int[ tripletRows.size() ];
+		final double[] costs = new double[ tripletRows.size() ];
+		for ( int k = 0; k < tripletRows.size(); k++ )
+		{
+			final int p = fill[ tripletRows.get( k ) ]++;
+			cols[ p ] = tripletCols.get( k );
+			costs[ p ] = tripletCosts.get( k );
+		}
+
+		final double[] u = new double[ nRows ];
+		final double[] v = new double[ nCols ];
+		final int[] col4row = new int[ nRows ];
+		final int[] row4col = new int[ nCols ];
+		Arrays.fill( col4row, -1 );
+		Arrays.fill( row4col, -1 );
+
+		final double[] shortestPathCosts = new double[ nCols ];
+		Arrays.fill( shortestPathCosts, Double.POSITIVE_INFINITY );
+		final int[] path = new int[ nCols ];
+		final boolean[] scannedCols = new boolean[ nCols ];
+		final TIntArrayList touchedCols = new TIntArrayList();
+		final TIntArrayList scannedRows = new TIntArrayList();
+		final PriorityQueue< double[] > queue = new PriorityQueue<>( ( a, b ) -> Double.compare( a[ 0 ], b[ 0 ] ) );
+
+		for ( int curRow = 0; curRow < nRows; curRow++ )
+		{
+			double minVal = 0;
+			int i = curRow;
+			int sink = -1;
+			while ( sink == -1 )
+			{
+				scannedRows.add( i );
+				for ( int p = rowStart[ i ]; p < rowStart[ i + 1 ]; p++ )
+				{
+					final int j = cols[ p ];
+					if ( scannedCols[ j ] )
+						continue;
+					final double r = minVal + costs[ p ] - u[ i ] - v[ j ];
+					if ( r < shortestPathCosts[ j ] )
+					{
+						if ( shortestPathCosts[ j ] == Double.POSITIVE_INFINITY )
+							touchedCols.add( j );
+						path[ j ] = i;
+						shortestPathCosts[ j ] = r;
+						queue.add( new double[] { r, j } );
+					}
+				}
+				int next = -1;
+				while ( !queue.isEmpty() )
+				{
+					final double[] entry = queue.poll();
+					final int j = ( int ) entry[ 1 ];
+					if ( !scannedCols[ j ] && entry[ 0 ] == shortestPathCosts[ j ] )
+					{
+						next = j;
+						break;
+					}
+				}
+				if ( next == -1 )
+					throw new IllegalStateException( "row " + curRow + " cannot be assigned" );
+				minVal = shortestPathCosts[ next ];
+				scannedCols[ next ] = true;
+				if ( row4col[ next ] == -1 )
+					sink = next;
+				else
+					i = row4col[ next ];
+			}
+
+			// update the potentials
+			u[ curRow ] += minVal;
+			for ( int k = 0; k < scannedRows.size(); k++ )
+			{
+				final int row = scannedRows.get( k );
+				if ( row != curRow )
+					u[ row ] += minVal - shortestPathCosts[ col4row[ row ] ];
+			}
+			for ( int k = 0; k < touchedCols.size(); k++ )
+			{
+				final int col = touchedCols.get( k );
+				if ( scannedCols[ col ] )
+					v[ col ] -= minVal - shortestPathCosts[ col ];
+			}
+
+			// augment the previous solution
+			int j = sink;
+			while ( true )
+			{
+				final int row = path[ j ];
+				row4col[ j ] = row;
+				final int tmp = col4row[ row ];
+				col4row[ row ] = j;
+				j = tmp;
+				if ( row == curRow )
+					break;
+			}
+
+			// reset the work arrays
+			for ( int k = 0; k < touchedCols.size(); k++ )
+			{
+				final int col = touchedCols.get( k );
+				shortestPathCosts[ col ] = Double.POSITIVE_INFINITY;
+				scannedCols[ col ] = false;
+			}
+			touchedCols.resetQuick();
+			scannedRows.resetQuick();
+			queue.clear();
+		}
+		return col4row;
+	}
+
+}
@@ -0,0 +1,527 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+import org.elephant.actions.PredictSpotsAction.SpotStruct;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+
+/**
+ * A columnar representation of a spot list that is exchanged with the server.
+ * <p>
+ * The binary encoding consists of a header ({@code "ELSP"} magic, version,
+ * flags, number of spots) followed by packed little-endian arrays of
+ * {@code t[n]}, {@code pos[3n]}, {@code covariance[9n]}, {@code id[n]},
+ * {@code quality[n]} and optionally {@code sqdisp[n]}. The JSON
+ * representation is kept as a fallback for servers that do not support the
+ * binary encoding.
+ * 
+ * @author Ko Sugawara
+ */
+public class SpotColumns
+{
+
+	public static final String CONTENT_TYPE = "application/x-elephant-spots";
+
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+	private static final int MAGIC = 0x50534c45; // "ELSP" in little-endian
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 16;
+
+	private static final int FLAG_COMPLETED = 1;
+
+	private static final int FLAG_SQDISP = 1 << 1;
+
+	private int size;
+
+	private int[] t;
+
+	private double[] pos;
+
+	private double[] cov;
+
+	private int[] id;
+
+	private double[] quality;
+
+	private double[] sqdisp;
+
+	private boolean completed = true;
+
+	public SpotColumns( final int capacity, final boolean withSqDisp )
+	{
+		final int n = Math.max( 1, capacity );
+		t = new int[ n ];
+		pos = new double[ n * 3 ];
+		cov = new double[ n * 9 ];
+		id = new int[ n ];
+		quality = new double[ n ];
+		sqdisp = withSqDisp ? new double[ n ] : null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isCompleted()
+	{
+		return completed;
+	}
+
+	public boolean hasSqDisp()
+	{
+		return sqdisp != null;
+	}
+
+	public void add( final int timepoint, final double[] position, final double[][] covariance, final int spotId,
+			final double spotQuality )
+	{
+		ensureCapacity( size + 1 );
+		t[ size ] = timepoint;
+		for ( int i = 0; i < 3; i++ )
+		{
+			pos[ size * 3 + i ] = position[ i ];
+			for ( int j = 0; j < 3; j++ )
+				cov[ size * 9 + i * 3 + j ] = covariance[ i ][ j ];
+		}
+		id[ size ] = spotId;
+		quality[ size ] = spotQuality;
+		if ( sqdisp != null )
+			sqdisp[ size ] = 0;
+		size++;
+	}
+
+	public void add( final SpotStruct spotStruct )
+	{
+		add( spotStruct.t, spotStruct.pos, spotStruct.covariance, spotStruct.id, spotStruct.quality );
+		if ( sqdisp != null )
+			sqdisp[ size - 1 ] = spotStruct.sqdisp;
+	}
+
+	public int getTimepoint( final int index )
+	{
+		return t[ index ];
+	}
+
+	public void getPosition( final int index, final double[] position )
+	{
+		System.arraycopy( pos, index * 3, position, 0, 3 );
+	}
+
+	public int getId( final int index )
+	{
+		return id[ index ];
+	}
+
+	public double getSqDisp( final int index )
+	{
+		return sqdisp == null ? 0 : sqdisp[ index ];
+	}
+
+	/**
+	 * Copy the spot at the specified index into a reusable {@link SpotStruct}.
+	 * 
+	 * @param index
+	 *            the index of the spot.
+	 * @param spotStruct
+	 *            the destination.
+	 */
+	public void get( final int index, final SpotStruct spotStruct )
+	{
+		spotStruct.t = t[ index ];
+		for ( int i = 0; i < 3; i++ )
+		{
+			spotStruct.pos[ i ] = pos[ index * 3 + i ];
+			for ( int j = 0; j < 3; j++ )
+				spotStruct.covariance[ i ][ j ] = cov[ index * 9 + i * 3 + j ];
+		}
+		spotStruct.quality = quality[ index ];
+		spotStruct.id = id[ index ];
+		spotStruct.sqdisp = getSqDisp( index );
+	}
+
+	private void ensureCapacity( final int capacity )
+	{
+		if ( capacity <= t.length )
+			return;
+		final int n = Math.max( capacity, t.length * 2 );
+		t = Arrays.copyOf( t, n );
+		pos = Arrays.copyOf( pos, n * 3 );
+		cov = Arrays.copyOf( cov, n * 9 );
+		id = Arrays.copyOf( id, n );
+		quality = Arrays.copyOf( quality, n );
+		if ( sqdisp != null )
+			sqdisp = Arrays.copyOf( sqdisp, n );
+	}
+
+	/**
+	 * Encode the spots in the binary format.
+	 * 
+	 * @return the encoded bytes.
+	 */
+	public byte[] encode()
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( HEADER_BYTES + size * bytesPerSpot( sqdisp != null ) ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putInt( MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putInt( ( completed ? FLAG_COMPLETED : 0 ) | ( sqdisp == null ? 0 : FLAG_SQDISP ) );
+		buffer.putInt( size );
+		buffer.asIntBuffer().put( t, 0, size );
+		buffer.position( buffer.position() + size * 4 );
+		putDoubles( buffer, pos, size * 3 );
+		putDoubles( buffer, cov, size * 9 );
+		buffer.asIntBuffer().put( id, 0, size );
+		buffer.position( buffer.position() + size * 4 );
+		putDoubles( buffer, quality, size );
+		if ( sqdisp != null )
+			putDoubles( buffer, sqdisp, size );
+		return buffer.array();
+	}
+
+	private static int bytesPerSpot( final boolean withSqDisp )
+	{
+		return 4 + 3 * 8 + 9 * 8 + 4 + 8 + ( withSqDisp ? 8 : 0 );
+	}
+
+	public String encodeBase64()
+	{
+		return Base64.getEncoder().encodeToString( encode() );
+	}
+
+	/**
+	 * Decode spots from the binary format.
+	 * 
+	 * @param bytes
+	 *            the encoded bytes.
+	 * @return the decoded spots.
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not in the expected format.
+	 */
+	public static SpotColumns decode( final byte[] bytes )
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN );
+		if ( bytes.length < HEADER_BYTES || buffer.getInt() != MAGIC )
+			throw new IllegalArgumentException( "Invalid spot data" );
+		final int version = buffer.getInt();
+		if ( version != VERSION )
+			throw new IllegalArgumentException( "Unsupported spot data version: " + version );
+		final int flags = buffer.getInt();
+		final int n = buffer.getInt();
+		if ( n < 0 || bytes.length < HEADER_BYTES + ( long ) n * bytesPerSpot( ( flags & FLAG_SQDISP ) != 0 ) )
+			throw new IllegalArgumentException( "Invalid spot data: " + n + " spots in " + bytes.length + " bytes" );
+		final SpotColumns columns = new SpotColumns( n, ( flags & FLAG_SQDISP ) != 0 );
+		columns.size = n;
+		columns.completed = ( flags & FLAG_COMPLETED ) != 0;
+		buffer.asIntBuffer().get( columns.t, 0, n );
+		buffer.position( buffer.position() + n * 4 );
+		getDoubles( buffer, columns.pos, n * 3 );
+		getDoubles( buffer, columns.cov, n * 9 );
+		buffer.asIntBuffer().get( columns.id, 0, n );
+		buffer.position( buffer.position() + n * 4 );
+		getDoubles( buffer, columns.quality, n );
+		if ( columns.sqdisp != null )
+			getDoubles( buffer, columns.sqdisp, n );
+		return columns;
+	}
+
+	private static void putDoubles( final ByteBuffer buffer, final double[] src, final int length )
+	{
+		buffer.asDoubleBuffer().put( src, 0, length );
+		buffer.position( buffer.position() + length * 8 );
+	}
+
+	private static void getDoubles( final ByteBuffer buffer, final double[] dst, final int length )
+	{
+		buffer.asDoubleBuffer().get( dst, 0, length );
+		buffer.position( buffer.position() + length * 8 );
+	}
+
+	/**
+	 * Decode a response body from a spot endpoint, which is either in the
+	 * binary format or in JSON depending on the content type. JSON bodies are
+	 * read with {@link SpotJsonReader} without building a JSON tree.
+	 * 
+	 * @param contentType
+	 *            the content type of the response.
+	 * @param body
+	 *            the response body.
+	 * @return the decoded spots.
+	 */
+	public static SpotColumns fromResponseBody( final String contentType, final byte[] body )
+	{
+		if ( isBinary( contentType ) )
+			return decode( body );
+		final SpotColumns columns = new SpotColumns( 0, true );
+		final SpotStruct spotStruct = new SpotStruct( new double[ 3 ], new double[ 3 ][ 3 ] );
+		try (final Reader reader = new InputStreamReader( new ByteArrayInputStream( body ), StandardCharsets.UTF_8 ))
+		{
+			columns.completed = SpotJsonReader.read( reader, spotStruct, columns::add );
+		}
+		catch ( final IOException e )
+		{
+			// the body is already in memory
+			throw new UncheckedIOException( e );
+		}
+		return columns;
+	}
+
+	/**
+	 * Read a response body from a spot endpoint and pass the spots to
+	 * {@code batchConsumer} in batches of up to {@code batchSize} spots, only
+	 * if the response is completed. JSON bodies are passed on while they are
+	 * being parsed once {@code "completed": true} has been read; the spots read
+	 * before it are staged, so a server that sends the field first gets its
+	 * spots applied as they arrive. Binary bodies are columnar, so they are
+	 * passed as a single batch once they have been read.
+	 * 
+	 * @param contentType
+	 *            the content type of the response.
+	 * @param inputStream
+	 *            the response body.
+	 * @param batchSize
+	 *            the maximum number of spots in a JSON batch.
+	 * @param batchConsumer
+	 *            receives each non-empty batch.
+	 * @return the value of the {@code completed} field.
+	 * @throws IOException
+	 *             if reading the body fails.
+	 */
+	public static boolean readBatches( final String contentType, final InputStream inputStream, final int batchSize,
+			final Consumer< SpotColumns > batchConsumer ) throws IOException
+	{
+		if ( isBinary( contentType ) )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 1 << 16 ];
+			int length;
+			while ( ( length = inputStream.read( buffer ) ) != -1 )
+				bytes.write( buffer, 0, length );
+			final SpotColumns columns = decode( bytes.toByteArray() );
+			if ( columns.isCompleted() && 0 < columns.size() )
+				batchConsumer.accept( columns );
+			return columns.isCompleted();
+		}
+		final BatchReader batchReader = new BatchReader( batchSize, batchConsumer );
+		final SpotStruct spotStruct = new SpotStruct( new double[ 3 ], new double[ 3 ][ 3 ] );
+		final boolean completed;
+		try (final Reader reader = new InputStreamReader( inputStream, StandardCharsets.UTF_8 ))
+		{
+			completed = SpotJsonReader.read( reader, spotStruct, batchReader::add, batchReader::completedRead );
+		}
+		// the field is absent or true
+		if ( completed )
+			batchReader.flush();
+		return completed;
+	}
+
+	/**
+	 * Stages spots until the response is known to be completed and passes
+	 * them on in batches from then on.
+	 */
+	private static class BatchReader
+	{
+
+		private final int batchSize;
+
+		private final Consumer< SpotColumns > batchConsumer;
+
+		private SpotColumns batch;
+
+		private Boolean completed;
+
+		private BatchReader( final int batchSize, final Consumer< SpotColumns > batchConsumer )
+		{
+			this.batchSize = batchSize;
+			this.batchConsumer = batchConsumer;
+			batch = new SpotColumns( batchSize, true );
+		}
+
+		private void add( final SpotStruct spotStruct )
+		{
+			if ( completed == Boolean.FALSE )
+				return;
+			batch.add( spotStruct );
+			if ( completed == Boolean.TRUE && batchSize <= batch.size() )
+				flush();
+		}
+
+		private void completedRead( final boolean value )
+		{
+			completed = value;
+			if ( value )
+				flush();
+			else
+				batch = new SpotColumns( 0, true );
+		}
+
+		private void flush()
+		{
+			if ( batch.size() == 0 )
+				return;
+			batchConsumer.accept( batch );
+			batch = new SpotColumns( batchSize, true );
+		}
+
+	}
+
+	public static boolean isBinary( final String contentType )
+	{
+		return contentType != null && contentType.startsWith( CONTENT_TYPE );
+	}
+
+	public JsonArray toJson()
+	{
+		final JsonArray jsonSpots = Json.array();
+		final double[] position = new double[ 3 ];
+		final double[] covariance = new double[ 9 ];
+		for ( int index = 0; index < size; index++ )
+		{
+			System.arraycopy( pos, index * 3, position, 0, 3 );
+			System.arraycopy( cov, index * 9, covariance, 0, 9 );
+			jsonSpots.add( Json.object()
+					.add( "t", t[ index ] )
+					.add( "pos", Json.array( position ) )
+					.add( "covariance", Json.array( covariance ) )
+					.add( "id", id[ index ] ) );
+		}
+		return jsonSpots;
+	}
+
+	/**
+	 * Reads a stream of spot blocks, one block per frame. Binary blocks are
+	 * concatenated as they are; JSON blocks are newline-delimited objects in the
+	 * format read by {@link SpotJsonReader}. Each block is decoded as soon as
+	 * it has been received.
+	 */
+	public static class FrameReader implements Closeable
+	{
+
+		private final DataInputStream binaryInput;
+
+		private final BufferedReader jsonInput;
+
+		private final SpotStruct spotStruct = new SpotStruct( new double[ 3 ], new double[ 3 ][ 3 ] );
+
+		public FrameReader( final String contentType, final InputStream inputStream )
+		{
+			if ( isBinary( contentType ) )
+			{
+				binaryInput = new DataInputStream( inputStream );
+				jsonInput = null;
+			}
+			else
+			{
+				binaryInput = null;
+				jsonInput = new BufferedReader( new InputStreamReader( inputStream, StandardCharsets.UTF_8 ) );
+			}
+		}
+
+		/**
+		 * Read the next block.
+		 * 
+		 * @return the spots of the next frame, or null at the end of the
+		 *         stream.
+		 * @throws IOException
+		 *             if the stream is broken or truncated.
+		 */
+		public SpotColumns next() throws IOException
+		{
+			return binaryInput != null ? nextBinary() : nextJson();
+		}
+
+		private SpotColumns nextBinary() throws IOException
+		{
+			final byte[] header = new byte[ HEADER_BYTES ];
+			final int first = binaryInput.read();
+			if ( first < 0 )
+				return null;
+			header[ 0 ] = ( byte ) first;
+			binaryInput.readFully( header, 1, HEADER_BYTES - 1 );
+			final ByteBuffer buffer = ByteBuffer.wrap( header ).order( ByteOrder.LITTLE_ENDIAN );
+			final int flags = buffer.getInt( 8 );
+			final int n = buffer.getInt( 12 );
+			final long length = HEADER_BYTES + ( long ) n * bytesPerSpot( ( flags & FLAG_SQDISP ) != 0 );
+			if ( n < 0 || Integer.MAX_VALUE < length )
+				throw new IllegalArgumentException( "Invalid spot data" );
+			final byte[] bytes = Arrays.copyOf( header, ( int ) length );
+			binaryInput.readFully( bytes, HEADER_BYTES, bytes.length - HEADER_BYTES );
+			return decode( bytes );
+		}
+
+		private SpotColumns nextJson() throws IOException
+		{
+			String line;
+			do
+			{
+				line = jsonInput.readLine();
+				if ( line == null )
+					return null;
+			}
+			while ( line.trim().isEmpty() );
+			final SpotColumns columns = new SpotColumns( 0, true );
+			columns.completed = SpotJsonReader.read( new StringReader( line ), spotStruct, columns::add );
+			return columns;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if ( binaryInput != null )
+				binaryInput.close();
+			else
+				jsonInput.close();
+		}
+
+	}
+
+}
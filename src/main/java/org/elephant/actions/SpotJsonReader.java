@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import org.elephant.actions.PredictSpotsAction.SpotStruct;
+
+import com.eclipsesource.json.JsonHandler;
+import com.eclipsesource.json.JsonParser;
+
+/**
+ * A streaming reader for spot responses from the server.
+ * <p>
+ * Reads a body of the form
+ * {@code {"completed": true, "spots": [{"t": 0, "pos": [...], "covariance": [...], ...}, ...]}}
+ * and delivers each spot to a sink as soon as it has been parsed, reusing a
+ * single {@link SpotStruct}. No intermediate JSON tree is built.
+ * 
+ * @author Ko Sugawara
+ */
+public class SpotJsonReader extends JsonHandler< Object, Object >
+{
+
+	private static final String JSON_KEY_SPOTS = "spots";
+
+	private static final String JSON_KEY_COMPLETED = "completed";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int DEPTH_ROOT = 1;
+
+	private static final int DEPTH_SPOT = 3;
+
+	private static final int DEPTH_SPOT_ARRAY = 4;
+
+	private final SpotStruct spotStruct;
+
+	private final Consumer< SpotStruct > sink;
+
+	private final Consumer< Boolean > completedListener;
+
+	private int depth;
+
+	private String rootName;
+
+	private String spotName;
+
+	private boolean inSpot;
+
+	private int arrayIndex;
+
+	private boolean completed = true;
+
+	private SpotJsonReader( final SpotStruct spotStruct, final Consumer< SpotStruct > sink,
+			final Consumer< Boolean > completedListener )
+	{
+		this.spotStruct = spotStruct;
+		this.sink = sink;
+		this.completedListener = completedListener;
+	}
+
+	/**
+	 * Read spots from a response body.
+	 * 
+	 * @param reader
+	 *            the response body.
+	 * @param spotStruct
+	 *            a reusable struct that is filled for each spot.
+	 * @param sink
+	 *            receives the struct after each spot has been read.
+	 * @return the value of the {@code completed} field, or true if the field
+	 *         is absent.
+	 * @throws IOException
+	 *             if reading the body fails.
+	 */
+	public static boolean read( final Reader reader, final SpotStruct spotStruct, final Consumer< SpotStruct > sink )
+			throws IOException
+	{
+		return read( reader, spotStruct, sink, completed -> {} );
+	}
+
+	/**
+	 * Read spots from a response body, telling the value of the
+	 * {@code completed} field as soon as it has been read.
+	 * 
+	 * @param reader
+	 *            the response body.
+	 * @param spotStruct
+	 *            a reusable struct that is filled for each spot.
+	 * @param sink
+	 *            receives the struct after each spot has been read.
+	 * @param completedListener
+	 *            receives the value of the {@code completed} field when it is
+	 *            read, which may be before or after the spots.
+	 * @return the value of the {@code completed} field, or true if the field
+	 *         is absent.
+	 * @throws IOException
+	 *             if reading the body fails.
+	 */
+	public static boolean read( final Reader reader, final SpotStruct spotStruct, final Consumer< SpotStruct > sink,
+			final Consumer< Boolean > completedListener ) throws IOException
+	{
+		final SpotJsonReader handler = new SpotJsonReader( spotStruct, sink, completedListener );
+		new JsonParser( handler ).parse( reader, BUFFER_SIZE );
+		return handler.completed;
+	}
+
+	@Override
+	public Object startObject()
+	{
+		depth++;
+		if ( depth == DEPTH_SPOT && JSON_KEY_SPOTS.equals( rootName ) )
+		{
+			inSpot = true;
+			spotStruct.t = 0;
+			spotStruct.id = -1;
+			spotStruct.quality = 0;
+			spotStruct.sqdisp = 0;
+		}
+		return null;
+	}
+
+	@Override
+	public void endObject( final Object object )
+	{
+		if ( inSpot && depth == DEPTH_SPOT )
+		{
+			sink.accept( spotStruct );
+			inSpot = false;
+		}
+		depth--;
+	}
+
+	@Override
+	public Object startArray()
+	{
+		depth++;
+		arrayIndex = 0;
+		return null;
+	}
+
+	@Override
+	public void endArrayValue( final Object array )
+	{
+		arrayIndex++;
+	}
+
+	@Override
+	public void endArray( final Object array )
+	{
+		depth--;
+	}
+
+	@Override
+	public void endObjectName( final Object object, final String name )
+	{
+		if ( depth == DEPTH_ROOT )
+			rootName = name;
+		else if ( inSpot && depth == DEPTH_SPOT )
+			spotName = name;
+	}
+
+	@Override
+	public void endBoolean( final boolean value )
+	{
+		if ( depth == DEPTH_ROOT && JSON_KEY_COMPLETED.equals( rootName ) )
+		{
+			completed = value;
+			completedListener.accept( value );
+		}
+	}
+
+	@Override
+	public void endNumber( final String string )
+	{
+		if ( !inSpot )
+			return;
+		if ( depth == DEPTH_SPOT )
+		{
+			switch ( spotName )
+			{
+			case "t":
+				spotStruct.t = ( int ) Double.parseDouble( string );
+				break;
+			case "id":
+				spotStruct.id = ( int ) Double.parseDouble( string );
+				break;
+			case "quality":
+				spotStruct.quality = Double.parseDouble( string );
+				break;
+			case "sqdisp":
+				spotStruct.sqdisp = Double.parseDouble( string );
+				break;
+			default:
+				break;
+			}
+		}
+		else if ( depth == DEPTH_SPOT_ARRAY )
+		{
+			if ( "pos".equals( spotName ) && arrayIndex < 3 )
+				spotStruct.pos[ arrayIndex ] = Double.parseDouble( string );
+			else if ( "covariance".equals( spotName ) && arrayIndex < 9 )
+				spotStruct.covariance[ arrayIndex / 3 ][ arrayIndex % 3 ] = Double.parseDouble( string );
+		}
+	}
+
+}
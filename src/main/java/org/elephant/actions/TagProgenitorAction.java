@@ -33,7 +33,6 @@ import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.elephant.actions.mixins.UIActionMixin;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefCollections;
-import org.mastodon.collection.RefList;
 import org.mastodon.collection.RefSet;
 import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
@@ -95,6 +94,7 @@ public class TagProgenitorAction extends AbstractElephantAction
 			for ( final Link edge : getGraph().edges() )
 				edgeProgenitorTagMap.set( edge, tagProgenitorUnlabeled );
 			int index = 1;
+			final LineageWalker walker = new LineageWalker( getGraph() );
 			for ( final Spot rootSpot : rootSpots )
 			{
 				if ( MAX_COUNT < index )
@@ -108,12 +108,13 @@ public class TagProgenitorAction extends AbstractElephantAction
 				final Tag tagProgenitor = getTag( getProgenitorTagSet(), String.valueOf( index++ ) );
 				final RefSet< Spot > spotsInTrack = RefCollections.createRefSet( spots );
 				final RefSet< Link > edgesInTrack = RefCollections.createRefSet( getGraph().edges() );
-				parseTree( rootSpot, spotsInTrack, edgesInTrack );
+				parseTree( walker, rootSpot, spotsInTrack, edgesInTrack );
 				for ( final Spot spot : spotsInTrack )
 					spotProgenitorTagMap.set( spot, tagProgenitor );
 				for ( final Link edge : edgesInTrack )
 					edgeProgenitorTagMap.set( edge, tagProgenitor );
 			}
+			walker.release();
 		}
 		finally
 		{
@@ -125,18 +126,16 @@ public class TagProgenitorAction extends AbstractElephantAction
 	}
 
 	private void parseTree(
-			final Spot spot,
+			final LineageWalker walker,
+			final Spot root,
 			final RefCollection< Spot > spotsInTrack,
 			final RefCollection< Link > edgesInTrack )
 	{
-		spotsInTrack.add( spot );
-		final RefList< Link > outgoingEdges = RefCollections.createRefList( getGraph().edges() );
-		for ( final Link edge : spot.outgoingEdges() )
-		{
-			outgoingEdges.add( edge );
-			edgesInTrack.add( edge );
-		}
-		for ( final Link edge : outgoingEdges )
-			parseTree( edge.getTarget( spot ), spotsInTrack, edgesInTrack );
+		walker.walk( root, 0, ( spot, state ) -> {
+			spotsInTrack.add( spot );
+			for ( final Link edge : spot.outgoingEdges() )
+				edgesInTrack.add( edge );
+			return state;
+		} );
 	}
 }
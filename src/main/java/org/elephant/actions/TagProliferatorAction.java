@@ -32,7 +32,6 @@ package org.elephant.actions;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefCollections;
-import org.mastodon.collection.RefList;
 import org.mastodon.collection.RefSet;
 import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
@@ -103,14 +102,16 @@ public class TagProliferatorAction extends AbstractElephantAction
 			}
 			for ( final Link edge : getGraph().edges() )
 				edgeTagMap.set( edge, tagProliferator );
+			final LineageWalker walker = new LineageWalker( getGraph() );
+			final int[] lastTimepoint = new int[ 1 ];
 			for ( final Spot rootSpot : rootSpots )
 			{
 				final int rootSpotTimepoint = rootSpot.getTimepoint();
 				final RefSet< Spot > spotsInTrack = RefCollections.createRefSet( spots );
 				final RefSet< Link > edgesInTrack = RefCollections.createRefSet( getGraph().edges() );
-				if ( !isProliferator( rootSpot, spotsInTrack, edgesInTrack ) )
+				if ( !isProliferator( walker, rootSpot, spotsInTrack, edgesInTrack, lastTimepoint ) )
 				{
-					if ( rootSpotTimepoint < TIMEPOINT_THRESHOLD_LOWER && TIMEPOINT_THRESHOLD_HIGHER < rootSpot.getTimepoint() )
+					if ( rootSpotTimepoint < TIMEPOINT_THRESHOLD_LOWER && TIMEPOINT_THRESHOLD_HIGHER < lastTimepoint[ 0 ] )
 					{
 						for ( final Spot spot : spotsInTrack )
 							spotTagMap.set( spot, tagNonproliferator );
@@ -126,6 +127,7 @@ public class TagProliferatorAction extends AbstractElephantAction
 					}
 				}
 			}
+			walker.release();
 		}
 		finally
 		{
@@ -136,25 +138,28 @@ public class TagProliferatorAction extends AbstractElephantAction
 		}
 	}
 
+	/**
+	 * Walk the track until a division is found.
+	 * 
+	 * @param lastTimepoint
+	 *            receives the timepoint of the last spot visited, which is the
+	 *            end of the track if it has no division.
+	 */
 	private boolean isProliferator(
-			final Spot spot,
+			final LineageWalker walker,
+			final Spot root,
 			final RefCollection< Spot > spotsInTrack,
-			final RefCollection< Link > edgesInTrack )
+			final RefCollection< Link > edgesInTrack,
+			final int[] lastTimepoint )
 	{
-		if ( 1 < spot.outgoingEdges().size() )
-			return true;
-		spotsInTrack.add( spot );
-		final RefList< Link > outgoingEdges = RefCollections.createRefList( getGraph().edges() );
-		for ( final Link edge : spot.outgoingEdges() )
-		{
-			outgoingEdges.add( edge );
-			edgesInTrack.add( edge );
-		}
-		for ( final Link edge : outgoingEdges )
-		{
-			if ( isProliferator( edge.getTarget( spot ), spotsInTrack, edgesInTrack ) )
-				return true;
-		}
-		return false;
+		return !walker.walk( root, 0, ( spot, state ) -> {
+			lastTimepoint[ 0 ] = spot.getTimepoint();
+			if ( 1 < spot.outgoingEdges().size() )
+				return LineageWalker.STOP;
+			spotsInTrack.add( spot );
+			for ( final Link edge : spot.outgoingEdges() )
+				edgesInTrack.add( edge );
+			return state;
+		} );
 	}
 }
@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagChangeListener;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.model.tag.TagSetModel.TagSetModelListener;
+import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.model.tag.TagSetStructure.TagSet;
+import org.mastodon.spatial.SpatioTemporalIndex;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Per-timepoint counts of the spots with each tag of a tag set.
+ * <p>
+ * The counts of a timepoint are computed in a single pass over the spots of
+ * that timepoint and then kept up to date. Tags set through
+ * {@link #setTag(TagSet, Spot, Tag)} and added spots update the counts in
+ * place. Removing a spot invalidates its timepoint, as its tags may already
+ * have been cleared. Mastodon does not tell which objects other tag changes
+ * affected, so those invalidate all the timepoints.
+ * 
+ * @author Ko Sugawara
+ */
+public class TimepointTagCounts implements GraphListener< Spot, Link >, TagChangeListener, TagSetModelListener
+{
+
+	private static final Map< Model, TimepointTagCounts > INSTANCES = new WeakHashMap<>();
+
+	private final TagSetModel< Spot, Link > tagSetModel;
+
+	private final SpatioTemporalIndex< Spot > spatioTemporalIndex;
+
+	private final Map< TagSet, TIntObjectMap< Map< Tag, Integer > > > counts = new HashMap<>();
+
+	/**
+	 * The thread setting a tag through {@link #setTag}, whose tag change
+	 * notifications are already accounted for.
+	 */
+	private volatile Thread tagWriter;
+
+	private TimepointTagCounts( final Model model )
+	{
+		tagSetModel = model.getTagSetModel();
+		spatioTemporalIndex = model.getSpatioTemporalIndex();
+	}
+
+	/**
+	 * Get the counts for the model, creating them if needed.
+	 */
+	public static TimepointTagCounts of( final Model model )
+	{
+		synchronized ( INSTANCES )
+		{
+			TimepointTagCounts instance = INSTANCES.get( model );
+			if ( instance == null )
+			{
+				instance = new TimepointTagCounts( model );
+				model.getGraph().addGraphListener( instance );
+				model.getTagSetModel().getVertexTags().listeners().add( instance );
+				model.getTagSetModel().listeners().add( instance );
+				INSTANCES.put( model, instance );
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Get the number of spots with each tag of the tag set at the timepoint.
+	 * The caller must hold the read lock.
+	 * 
+	 * @param tagSet
+	 *            the tag set.
+	 * @param timepoint
+	 *            the timepoint.
+	 * @return the counts in the order of the tags in the tag set.
+	 */
+	public synchronized Map< Tag, Integer > getCounts( final TagSet tagSet, final int timepoint )
+	{
+		final TIntObjectMap< Map< Tag, Integer > > countsOfTagSet = counts.computeIfAbsent( tagSet, ts -> new TIntObjectHashMap<>() );
+		Map< Tag, Integer > countsAtTimepoint = countsOfTagSet.get( timepoint );
+		if ( countsAtTimepoint == null )
+		{
+			countsAtTimepoint = emptyCounts( tagSet );
+			final ObjTagMap< Spot, Tag > tagMap = tagSetModel.getVertexTags().tags( tagSet );
+			for ( final Spot spot : spatioTemporalIndex.getSpatialIndex( timepoint ) )
+			{
+				final Tag tag = tagMap.get( spot );
+				if ( tag != null )
+					countsAtTimepoint.merge( tag, 1, Integer::sum );
+			}
+			countsOfTagSet.put( timepoint, countsAtTimepoint );
+		}
+		return Collections.unmodifiableMap( countsAtTimepoint );
+	}
+
+	/**
+	 * Get the number of spots with each tag of the tag set in the timepoint
+	 * range. The caller must hold the read lock. The range counts are summed
+	 * from the per-timepoint counts on each call, which takes
+	 * O(#timepoints &times; #tags) once those are cached.
+	 * 
+	 * @param tagSet
+	 *            the tag set.
+	 * @param timepointStart
+	 *            the first timepoint (inclusive).
+	 * @param timepointEnd
+	 *            the last timepoint (inclusive).
+	 * @return the counts in the order of the tags in the tag set.
+	 */
+	public synchronized Map< Tag, Integer > getCounts( final TagSet tagSet, final int timepointStart, final int timepointEnd )
+	{
+		final Map< Tag, Integer > countsInRange = emptyCounts( tagSet );
+		for ( int timepoint = timepointStart; timepoint <= timepointEnd; timepoint++ )
+			getCounts( tagSet, timepoint ).forEach( ( tag, count ) -> countsInRange.merge( tag, count, Integer::sum ) );
+		return countsInRange;
+	}
+
+	/**
+	 * Set the tag of a spot, updating the counts of its timepoint in place
+	 * instead of invalidating all the timepoints. The caller must hold the
+	 * write lock.
+	 * 
+	 * @param tagSet
+	 *            the tag set that the tag belongs to.
+	 * @param spot
+	 *            the spot.
+	 * @param tag
+	 *            the new tag.
+	 */
+	public void setTag( final TagSet tagSet, final Spot spot, final Tag tag )
+	{
+		final ObjTagMap< Spot, Tag > tagMap = tagSetModel.getVertexTags().tags( tagSet );
+		final Tag oldTag = tagMap.get( spot );
+		tagWriter = Thread.currentThread();
+		try
+		{
+			tagMap.set( spot, tag );
+		}
+		finally
+		{
+			tagWriter = null;
+		}
+		if ( oldTag != tag )
+		{
+			synchronized ( this )
+			{
+				final TIntObjectMap< Map< Tag, Integer > > countsOfTagSet = counts.get( tagSet );
+				final Map< Tag, Integer > countsAtTimepoint = countsOfTagSet == null ? null : countsOfTagSet.get( spot.getTimepoint() );
+				if ( countsAtTimepoint != null )
+				{
+					if ( oldTag != null )
+						countsAtTimepoint.merge( oldTag, -1, Integer::sum );
+					countsAtTimepoint.merge( tag, 1, Integer::sum );
+				}
+			}
+		}
+	}
+
+	private static Map< Tag, Integer > emptyCounts( final TagSet tagSet )
+	{
+		final Map< Tag, Integer > emptyCounts = new LinkedHashMap<>();
+		for ( final Tag tag : tagSet.getTags() )
+			emptyCounts.put( tag, 0 );
+		return emptyCounts;
+	}
+
+	private synchronized void invalidate( final int timepoint )
+	{
+		for ( final TIntObjectMap< Map< Tag, Integer > > countsOfTagSet : counts.values() )
+			countsOfTagSet.remove( timepoint );
+	}
+
+	private synchronized void invalidateAll()
+	{
+		counts.clear();
+	}
+
+	/**
+	 * GraphListener&lt;Spot, Link&gt;
+	 */
+
+	@Override
+	public void graphRebuilt()
+	{
+		invalidateAll();
+	}
+
+	@Override
+	public synchronized void vertexAdded( final Spot vertex )
+	{
+		for ( final Map.Entry< TagSet, TIntObjectMap< Map< Tag, Integer > > > entry : counts.entrySet() )
+		{
+			final Map< Tag, Integer > countsAtTimepoint = entry.getValue().get( vertex.getTimepoint() );
+			if ( countsAtTimepoint == null )
+				continue;
+			final Tag tag = tagSetModel.getVertexTags().tags( entry.getKey() ).get( vertex );
+			if ( tag != null )
+				countsAtTimepoint.merge( tag, 1, Integer::sum );
+		}
+	}
+
+	@Override
+	public void vertexRemoved( final Spot vertex )
+	{
+		invalidate( vertex.getTimepoint() );
+	}
+
+	@Override
+	public void edgeAdded( final Link edge )
+	{}
+
+	@Override
+	public void edgeRemoved( final Link edge )
+	{}
+
+	/**
+	 * TagChangeListener
+	 */
+
+	@Override
+	public void tagsChanged()
+	{
+		if ( tagWriter != Thread.currentThread() )
+			invalidateAll();
+	}
+
+	/**
+	 * TagSetModelListener
+	 */
+
+	@Override
+	public void tagSetStructureChanged()
+	{
+		invalidateAll();
+	}
+
+}
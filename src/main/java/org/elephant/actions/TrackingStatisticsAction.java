@@ -29,7 +29,7 @@
 
 package org.elephant.actions;
 
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
@@ -38,9 +38,8 @@ import javax.swing.SwingUtilities;
 import org.elephant.actions.mixins.ElephantTagActionMixin;
 import org.elephant.actions.mixins.GraphActionMixin;
 import org.elephant.actions.mixins.TimepointMixin;
-import org.mastodon.mamut.model.Spot;
-import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.model.tag.TagSetStructure.TagSet;
 
 /**
  * Display the summary of the tracking in the following format.
@@ -89,18 +88,14 @@ public class TrackingStatisticsAction extends AbstractElephantAction
 		getGraph().getLock().readLock().lock();
 		try
 		{
-			final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( getTrackingTagSet() );
+			final TagSet tagSet = getTrackingTagSet();
+			final TimepointTagCounts timepointTagCounts = TimepointTagCounts.of( getModel() );
 			final StringBuilder stringBuilder = new StringBuilder();
 			stringBuilder.append( "All timepoints:" );
-			getGraph().vertices().stream()
-					.collect( Collectors.groupingBy( spot -> tagMap.get( spot ).label(), Collectors.counting() ) )
-					.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k, v ) ) );
+			appendCounts( stringBuilder, timepointTagCounts.getCounts( tagSet, getMinTimepoint(), getMaxTimepoint() ) );
 			final int currentTimepoint = getCurrentTimepoint( 0 );
 			stringBuilder.append( String.format( "\nTimepoint (%d): ", currentTimepoint ) );
-			getGraph().vertices().stream()
-					.filter( spot -> spot.getTimepoint() == currentTimepoint )
-					.collect( Collectors.groupingBy( spot -> tagMap.get( spot ).label(), Collectors.counting() ) )
-					.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k, v ) ) );
+			appendCounts( stringBuilder, timepointTagCounts.getCounts( tagSet, currentTimepoint ) );
 			SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null, new JTextArea( stringBuilder.toString() ) ) );
 		}
 		finally
@@ -109,4 +104,12 @@ public class TrackingStatisticsAction extends AbstractElephantAction
 		}
 	}
 
+	private static void appendCounts( final StringBuilder stringBuilder, final Map< Tag, Integer > counts )
+	{
+		counts.forEach( ( tag, count ) -> {
+			if ( 0 < count )
+				stringBuilder.append( String.format( "\n\t%s: %d", tag.label(), count ) );
+		} );
+	}
+
 }
@@ -33,13 +33,13 @@ import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import org.elephant.actions.mixins.BdvContextMixin;
 import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
+import org.elephant.actions.mixins.SpatioTemporalIndexActionMinxin;
 import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
 
 import com.eclipsesource.json.Json;
@@ -66,7 +66,7 @@ import net.imglib2.Dimensions;
  * @author Ko Sugawara
  */
 public class TrainDetectionAction extends AbstractElephantDatasetAction
-		implements BdvContextMixin, ElephantGraphTagActionMixin
+		implements BdvContextMixin, ElephantGraphTagActionMixin, SpatioTemporalIndexActionMinxin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -143,8 +143,9 @@ public class TrainDetectionAction extends AbstractElephantDatasetAction
 			tagsToProcess.add( getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) );
 			tagsToProcess.add( getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ) );
 			final Iterable< Spot > spots;
+			final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( getDetectionTagSet() );
 			Predicate< Spot > spotFilter = spot -> timepoints.contains( spot.getTimepoint() );
-			spotFilter = spotFilter.and( spot -> tagsToProcess.contains( getVertexTagMap( getDetectionTagSet() ).get( spot ) ) );
+			spotFilter = spotFilter.and( spot -> tagsToProcess.contains( tagMap.get( spot ) ) );
 			switch ( trainingMode )
 			{
 			case LIVE:
@@ -159,8 +160,8 @@ public class TrainDetectionAction extends AbstractElephantDatasetAction
 				final int timepointEnd = getCurrentTimepoint( 0 );
 				final int timeRange = getActionStateManager().isLivemode() ? 1 : getMainSettings().getTimeRange();
 				final int timepointStart = Math.max( 0, timepointEnd - timeRange + 1 );
-				timepoints.addAll( IntStream.rangeClosed( timepointStart, timepointEnd ).boxed().collect( Collectors.toList() ) );
-				addSpotsToJson( getGraph().vertices(), jsonSpots, spotFilter );
+				addSpotsToJson( getSpotsInTimepointRange( timepointStart, timepointEnd ), jsonSpots,
+						spot -> tagsToProcess.contains( tagMap.get( spot ) ) );
 				break;
 			case ALL:
 				for ( int i = 0; i <= getAppModel().getMaxTimepoint(); i++ )
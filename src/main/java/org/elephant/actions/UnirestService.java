@@ -29,12 +29,22 @@
 
 package org.elephant.actions;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.elephant.setting.SettingsApplyListener;
 
 import kong.unirest.Unirest;
+import kong.unirest.UnirestInstance;
 
 /**
  * Basic configuration for the Unirest.
+ * <p>
+ * Requests are sent through one {@link UnirestInstance} per {@link Pool}, each
+ * with its own connection pool and timeouts, so that status polling and
+ * uploads do not wait for connections held by long-running requests. The
+ * instances are only rebuilt when a setting they depend on has changed,
+ * keeping their connections alive across other settings changes.
  * 
  * @author Ko Sugawara
  */
@@ -43,24 +53,94 @@ public class UnirestService extends AbstractElephantService implements SettingsA
 
 	private static final long serialVersionUID = 1L;
 
-	private static final int UNIREST_TIMEOUT = 24 * 60 * 60 * 1000;
+	public enum Pool
+	{
+		/**
+		 * Training, prediction and other requests that may take as long as the
+		 * server needs.
+		 */
+		ACTION( 30 * 1000, 24 * 60 * 60 * 1000, 200, 20 ),
+		/**
+		 * Short requests polling the server state.
+		 */
+		STATUS( 5 * 1000, 30 * 1000, 4, 4 ),
+		/**
+		 * Image upload requests, up to the maximum upload parallelism.
+		 */
+		UPLOAD( 30 * 1000, 60 * 60 * 1000, 40, 40 );
+
+		private final int connectTimeout;
+
+		private final int socketTimeout;
+
+		private final int maxConnections;
+
+		private final int maxConnectionsPerRoute;
+
+		private Pool( final int connectTimeout, final int socketTimeout, final int maxConnections, final int maxConnectionsPerRoute )
+		{
+			this.connectTimeout = connectTimeout;
+			this.socketTimeout = socketTimeout;
+			this.maxConnections = maxConnections;
+			this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		}
+	}
+
+	private static final Map< Pool, UnirestInstance > instances = new EnumMap<>( Pool.class );
+
+	private static Boolean verifySsl;
 
 	public UnirestService()
 	{
 		super();
-		Unirest.config()
-				.reset()
-				.socketTimeout( UNIREST_TIMEOUT )
-				.connectTimeout( UNIREST_TIMEOUT )
-				.concurrency( 200, 20 )
+		configure( getServerSettings().getVerifySSL() );
+	}
+
+	/**
+	 * Get the {@link UnirestInstance} for the requests of a {@link Pool}.
+	 */
+	public static synchronized UnirestInstance getInstance( final Pool pool )
+	{
+		UnirestInstance instance = instances.get( pool );
+		if ( instance == null )
+		{
+			instance = Unirest.spawnInstance();
+			configure( instance, pool, verifySsl == null || verifySsl );
+			instances.put( pool, instance );
+		}
+		return instance;
+	}
+
+	/**
+	 * Apply the SSL setting. The clients of the existing instances are built
+	 * with the previous setting, so they are closed and the instances are
+	 * spawned again on their next use.
+	 */
+	private static synchronized void configure( final boolean verifySsl )
+	{
+		final boolean isChanged = ( UnirestService.verifySsl == null || UnirestService.verifySsl ) != verifySsl;
+		UnirestService.verifySsl = verifySsl;
+		if ( !isChanged )
+			return;
+		for ( final UnirestInstance instance : instances.values() )
+			instance.shutDown( false );
+		instances.clear();
+	}
+
+	private static void configure( final UnirestInstance instance, final Pool pool, final boolean verifySsl )
+	{
+		instance.config()
+				.connectTimeout( pool.connectTimeout )
+				.socketTimeout( pool.socketTimeout )
+				.concurrency( pool.maxConnections, pool.maxConnectionsPerRoute )
 				.addDefaultHeader( "Cache-Control", "no-cache" )
 				.addDefaultHeader( "Connection", "keep-alive" )
-				.verifySsl( getServerSettings().getVerifySSL() );
+				.verifySsl( verifySsl );
 	}
 
 	@Override
 	public void applySettings()
 	{
-		Unirest.config().reset().verifySsl( getServerSettings().getVerifySSL() );
+		configure( getServerSettings().getVerifySSL() );
 	}
 }
@@ -33,14 +33,14 @@ import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import org.elephant.actions.mixins.BdvContextMixin;
 import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
+import org.elephant.actions.mixins.SpatioTemporalIndexActionMinxin;
 import org.mastodon.mamut.KeyConfigScopes;
 import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
 import org.scijava.ui.behaviour.io.gui.CommandDescriptionProvider;
 import org.scijava.ui.behaviour.io.gui.CommandDescriptions;
@@ -53,6 +53,7 @@ import com.eclipsesource.json.JsonObject;
 
 import bdv.viewer.animate.TextOverlayAnimator;
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import kong.unirest.HttpResponse;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 
 /**
@@ -62,7 +63,7 @@ import mpicbg.spim.data.sequence.VoxelDimensions;
  * @author Ko Sugawara
  */
 public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
-		implements BdvContextMixin, ElephantGraphTagActionMixin
+		implements BdvContextMixin, ElephantGraphTagActionMixin, SpatioTemporalIndexActionMinxin
 {
 	private static final long serialVersionUID = 1L;
 
@@ -78,6 +79,12 @@ public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
 
 	private JsonObject jsonRootObject;
 
+	/**
+	 * The changes sent with {@link #ENDPOINT_DETECTION_UPDATE_DELTA}, or null
+	 * if all the labels are sent with {@link #ENDPOINT_DETECTION_UPDATE}.
+	 */
+	private DetectionLabelSync.Delta delta;
+
 	/*
 	 * Command description.
 	 */
@@ -123,15 +130,17 @@ public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
 		return bdvContextService;
 	}
 
-	@Override
-	boolean prepare()
+	/**
+	 * Build the request from the current labels.
+	 */
+	private void buildRequest()
 	{
 		final int timepointEnd = getCurrentTimepoint( 0 );
 		final int timeRange = getActionStateManager().isLivemode() ? 1 : getMainSettings().getTimeRange();
 		final int timepointStart = Math.max( 0, timepointEnd - timeRange + 1 );
-		final List< Integer > timepoints = IntStream.rangeClosed( timepointStart, timepointEnd ).boxed().collect( Collectors.toList() );
 		final JsonArray jsonSpots = Json.array();
 		final List< Tag > tagsToProcess = new ArrayList< Tag >();
+		delta = null;
 		getGraph().getLock().readLock().lock();
 		try
 		{
@@ -154,9 +163,20 @@ public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
 			}
 			else
 			{
-				Predicate< Spot > spotFilter = spot -> timepoints.contains( spot.getTimepoint() );
-				spotFilter = spotFilter.and( spot -> tagsToProcess.contains( getVertexTagMap( getDetectionTagSet() ).get( spot ) ) );
-				addSpotsToJson( getGraph().vertices(), jsonSpots, spotFilter );
+				final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( getDetectionTagSet() );
+				final Predicate< Spot > spotFilter = spot -> tagsToProcess.contains( tagMap.get( spot ) );
+				if ( getServerStateManager().isDeltaLabelSyncSupported() )
+				{
+					final DetectionLabelSync.Delta currentDelta = DetectionLabelSync.of( getModel() ).diff(
+							getMainSettings().getDatasetName(), getSpotsInTimepointRange( timepointStart, timepointEnd ), tagMap,
+							spotFilter, timepointStart, timepointEnd );
+					addSpotsToJson( getSpotsInTimepointRange( timepointStart, timepointEnd ), jsonSpots, currentDelta::isUpserted );
+					delta = currentDelta;
+				}
+				else
+				{
+					addSpotsToJson( getSpotsInTimepointRange( timepointStart, timepointEnd ), jsonSpots, spotFilter );
+				}
 			}
 		}
 		finally
@@ -178,41 +198,120 @@ public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
 				.add( JSON_KEY_IS_3D, !is2D() )
 				.add( JSON_KEY_IS_LIVEMODE, getActionStateManager().isLivemode() )
 				.add( JSON_KEY_USE_MEMMAP, getMainSettings().getUseMemmap() );
-		return true;
+		if ( delta != null )
+		{
+			jsonRootObject
+					.add( JSON_KEY_SYNC_VERSION, delta.getBaseVersion() )
+					.add( JSON_KEY_DELETED, Json.array( delta.getDeletions() ) );
+		}
 	}
 
+	/**
+	 * Send the labels. Delta updates are sent one at a time: a press while one
+	 * is in flight is merged into the next request, which is built when the
+	 * one in flight has finished.
+	 */
 	@Override
 	public void processDataset()
 	{
+		final boolean isDeltaSync = !getActionStateManager().isLivemode() && getServerStateManager().isDeltaLabelSyncSupported();
+		if ( isDeltaSync && !DetectionLabelSync.of( getModel() ).startUpdate() )
+		{
+			getClientLogger().info( "Detection labels will be sent after the update in flight" );
+			return;
+		}
+		send( isDeltaSync );
+	}
+
+	/**
+	 * @param holdsSync
+	 *            true if the request holds the update slot of
+	 *            {@link DetectionLabelSync}, which is released when it has
+	 *            finished.
+	 */
+	private void send( final boolean holdsSync )
+	{
+		buildRequest();
+		final DetectionLabelSync.Delta requestDelta = delta;
+		final String endpoint = requestDelta == null ? ENDPOINT_DETECTION_UPDATE : ENDPOINT_DETECTION_UPDATE_DELTA;
 		try
 		{
-			postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_UPDATE ), jsonRootObject.toString(),
+			postAsStringAsync( getEndpointURL( endpoint ), jsonRootObject.toString(),
 					response -> {
-						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+						try
 						{
-							final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
-							final String message =
-									rootObject.get( "completed" ).asBoolean() ? "Detection labels are updated" : "Update aborted";
-							showTextOverlayAnimator( message, 3000, TextOverlayAnimator.TextPosition.CENTER );
+							handleResponse( response, requestDelta, holdsSync );
 						}
-						else
+						catch ( final RuntimeException e )
 						{
-							final StringBuilder sb = new StringBuilder( response.getStatusText() );
-							if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR ||
-									response.getStatus() == HttpURLConnection.HTTP_BAD_REQUEST )
-							{
-								sb.append( ": " );
-								sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
-							}
-							showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
-							getClientLogger().severe( sb.toString() );
+							handleError( e );
+							finishUpdate( holdsSync );
 						}
+					},
+					e -> {
+						handleRequestFailure( e );
+						finishUpdate( holdsSync );
+					},
+					() -> {
+						getClientLogger().info( "The request has been cancelled" );
+						finishUpdate( holdsSync );
 					} );
 		}
 		catch ( final ElephantConnectException e )
 		{
 			// already handled by UnirestMixin
+			finishUpdate( holdsSync );
 		}
 	}
 
+	private void handleResponse( final HttpResponse< String > response, final DetectionLabelSync.Delta requestDelta,
+			final boolean holdsSync )
+	{
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+		{
+			final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
+			final boolean isCompleted = rootObject.get( "completed" ).asBoolean();
+			if ( requestDelta != null && isCompleted )
+				DetectionLabelSync.of( getModel() ).commit( requestDelta,
+						rootObject.getInt( JSON_KEY_SYNC_VERSION, requestDelta.getBaseVersion() + 1 ) );
+			final String message = isCompleted ? "Detection labels are updated" : "Update aborted";
+			showTextOverlayAnimator( message, 3000, TextOverlayAnimator.TextPosition.CENTER );
+			finishUpdate( holdsSync );
+		}
+		else if ( requestDelta != null && response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
+		{
+			getClientLogger().info( "The server does not support " + ENDPOINT_DETECTION_UPDATE_DELTA
+					+ ", falling back to " + ENDPOINT_DETECTION_UPDATE );
+			getServerStateManager().setDeltaLabelSyncSupported( false );
+			send( holdsSync );
+		}
+		else if ( requestDelta != null && response.getStatus() == HttpURLConnection.HTTP_CONFLICT
+				&& requestDelta.getBaseVersion() != 0 )
+		{
+			// the server has lost track of the labels, e.g. after a reset
+			getClientLogger().info( "Detection labels are out of sync, sending all the labels" );
+			DetectionLabelSync.of( getModel() ).reset();
+			send( holdsSync );
+		}
+		else
+		{
+			final StringBuilder sb = new StringBuilder( response.getStatusText() );
+			if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR ||
+					response.getStatus() == HttpURLConnection.HTTP_BAD_REQUEST )
+			{
+				sb.append( ": " );
+				sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
+			}
+			showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+			getClientLogger().severe( sb.toString() );
+			finishUpdate( holdsSync );
+		}
+	}
+
+	private void finishUpdate( final boolean holdsSync )
+	{
+		if ( holdsSync && DetectionLabelSync.of( getModel() ).finishUpdate() )
+			send( true );
+	}
+
 }
@@ -29,6 +29,12 @@
 
 package org.elephant.actions;
 
+import java.net.HttpURLConnection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.elephant.actions.ElephantStatusService.ElephantStatus;
 import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantConstantsMixin;
@@ -44,15 +50,41 @@ import bdv.viewer.animate.TextOverlayAnimator;
 
 /**
  * Send a request for updating the training parameters.
+ * <p>
+ * The parameters last accepted by the server are forgotten whenever the server
+ * status or URL changes, so that they are sent again to a restarted or
+ * different server.
  * 
  * @author Ko Sugawara
  */
 public class UpdateTrainingParametersService extends AbstractElephantService
-		implements ElephantConstantsMixin, ElephantSettingsListener, UnirestMixin, URLMixin
+		implements ElephantConstantsMixin, ElephantServerStatusListener, ElephantSettingsListener, UnirestMixin, URLMixin
 {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Settings changes within this delay are sent as a single request.
+	 */
+	private static final long DEBOUNCE_DELAY_MILLIS = 500;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+		final Thread thread = new Thread( runnable, "elephant-params" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private ScheduledFuture< ? > pendingUpdate;
+
+	/**
+	 * The parameters last accepted by the server, or null if they are unknown.
+	 */
+	private String lastSentParams;
+
+	private ElephantStatus lastServerStatus;
+
+	private String lastServerURL;
+
 	public UpdateTrainingParametersService( final ProjectModel pluginAppModel )
 	{
 		super();
@@ -60,20 +92,59 @@ public class UpdateTrainingParametersService extends AbstractElephantService
 	}
 
 	@Override
-	public void mainSettingsUpdated()
+	public synchronized void mainSettingsUpdated()
+	{
+		if ( pendingUpdate != null )
+			pendingUpdate.cancel( false );
+		pendingUpdate = scheduler.schedule( this::updateParams, DEBOUNCE_DELAY_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	@Override
+	public synchronized void serverStatusUpdated()
+	{
+		final ElephantStatus serverStatus = getServerStateManager().getElephantServerStatus();
+		final String serverURL = getServerSettings().getServerURL();
+		if ( serverStatus == lastServerStatus && serverURL.equals( lastServerURL ) )
+			return;
+		lastServerStatus = serverStatus;
+		lastServerURL = serverURL;
+		lastSentParams = null;
+		if ( serverStatus == ElephantStatus.AVAILABLE )
+			mainSettingsUpdated();
+	}
+
+	private void updateParams()
 	{
 		if ( getServerStateManager().getElephantServerStatus() == ElephantStatus.UNAVAILABLE )
 		{
+			synchronized ( this )
+			{
+				lastSentParams = null;
+			}
 			return;
 		}
 
 		final JsonObject jsonRootObject = Json.object()
 				.add( JSON_KEY_LR, getMainSettings().getLearningRate() )
 				.add( JSON_KEY_N_CROPS, getMainSettings().getNumCrops() );
+		final String params = jsonRootObject.toString();
+		synchronized ( this )
+		{
+			// other main settings have changed
+			if ( params.equals( lastSentParams ) )
+				return;
+		}
 		try
 		{
-			postAsStringAsync( getEndpointURL( ENDPOINT_PARAMS ), jsonRootObject.toString(),
+			postAsStringAsync( getEndpointURL( ENDPOINT_PARAMS ), params,
 					response -> {
+						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+						{
+							synchronized ( this )
+							{
+								lastSentParams = params;
+							}
+						}
 						showTextOverlayAnimator( "Params updated", 3000, TextOverlayAnimator.TextPosition.CENTER );
 					} );
 		}
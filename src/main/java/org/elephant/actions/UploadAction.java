@@ -29,27 +29,53 @@
 
 package org.elephant.actions;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.elephant.actions.mixins.BdvDataMixin;
+import org.elephant.actions.mixins.ElephantConnectException;
 import org.elephant.actions.mixins.ElephantConstantsMixin;
 import org.elephant.actions.mixins.URLMixin;
 import org.elephant.actions.mixins.UnirestMixin;
+import org.elephant.setting.main.ElephantMainSettings;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
 
 import bdv.img.hdf5.Hdf5ImageLoader;
 import bdv.img.hdf5.Partition;
-import kong.unirest.Unirest;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import kong.unirest.ContentType;
+import kong.unirest.Empty;
+import kong.unirest.HttpResponse;
+import kong.unirest.MultipartBody;
+import kong.unirest.UnirestException;
+import kong.unirest.UnirestInstance;
 
 /**
  * Upload an image data (.h5) to the server.
@@ -68,6 +94,16 @@ public class UploadAction extends AbstractElephantAction
 
 	final static int CHUNK_SIZE = 10 * 1024 * 1024;
 
+	private static final int MAX_RETRIES = 3;
+
+	private static final String CHUNK_HASH_ALGORITHM = "SHA-256";
+
+	@Override
+	public UnirestInstance getUnirest()
+	{
+		return UnirestService.getInstance( UnirestService.Pool.UPLOAD );
+	}
+
 	@Override
 	public String getMenuText()
 	{
@@ -79,65 +115,435 @@ public class UploadAction extends AbstractElephantAction
 		super( NAME );
 	}
 
-	private void uploadFile( final File file, final UploadDialog uploadDialog, final String labelPrefix )
+	/**
+	 * Upload a file in chunks of {@link #CHUNK_SIZE}. Each chunk is memory
+	 * mapped and streamed into the multipart body without a temp file.
+	 * <p>
+	 * If the server supports it, the chunks are hashed first and only the
+	 * chunks whose content the server does not hold yet are sent (see
+	 * {@link #uploadMissingChunks}). Otherwise the file is appended
+	 * sequentially, resuming from the offset the server has committed (see
+	 * {@link #uploadSequentially}).
+	 * <p>
+	 * The file must have been registered with
+	 * {@link UploadDialog#addFile(long)}. This method can be called for
+	 * different files concurrently.
+	 * 
+	 * @return true if the file was uploaded and completed on the server.
+	 */
+	private boolean uploadFile( final File file, final UploadDialog uploadDialog )
 	{
-		final byte[] buff = new byte[ CHUNK_SIZE ];
 		final long fileSize = file.length();
-		long bytesOffset = 0;
-		try ( final InputStream fis = new FileInputStream( file ) )
+		try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			final TIntList missingChunks = getServerStateManager().isChunkDedupSupported()
+					? queryMissingChunks( file, channel, fileSize )
+					: null;
+			final boolean isSucceeded = missingChunks == null
+					? uploadSequentially( file, channel, fileSize, uploadDialog )
+					: uploadMissingChunks( file, channel, fileSize, missingChunks, uploadDialog );
+			if ( !isSucceeded )
+				return false;
+			final boolean isCancelled = uploadDialog.isCancelled();
+			if ( !isCancelled )
+				uploadDialog.fileCompleted();
+			final HttpResponse< Empty > response = getUnirest().post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+					.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+					.field( "filename", file.getName() )
+					.field( "action", isCancelled ? "cancel" : "complete" )
+					.asEmpty();
+			if ( !isCancelled && !response.isSuccess() )
+				getClientLogger().severe( String.format( "Failed to complete %s: %s", file.getName(), response.getStatusText() ) );
+			return !isCancelled && response.isSuccess();
+		}
+		catch ( final IOException e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			return false;
+		}
+	}
+
+	/**
+	 * Append the file chunk by chunk. Before the first chunk, the server is
+	 * asked how many bytes of an unfinished upload of the same file it has
+	 * already committed, and the upload resumes from there. A failed chunk is
+	 * retried from the offset the server reports.
+	 * 
+	 * @return false if the upload failed, in which case the partial upload is
+	 *         kept on the server so that it can be resumed later.
+	 */
+	private boolean uploadSequentially( final File file, final FileChannel channel, final long fileSize,
+			final UploadDialog uploadDialog ) throws IOException
+	{
+		long bytesOffset = getCommittedOffset( file, fileSize );
+		if ( 0 < bytesOffset )
+		{
+			getClientLogger().info( String.format( "Resume uploading %s from %.2f MB", file.getName(), toMB( bytesOffset ) ) );
+			uploadDialog.addResumedBytes( bytesOffset );
+		}
+		int nRetries = 0;
+		while ( !uploadDialog.isCancelled() && bytesOffset < fileSize )
 		{
-			while ( !uploadDialog.isCancelled() )
+			final int chunkBytes = ( int ) Math.min( CHUNK_SIZE, fileSize - bytesOffset );
+			// bytes of this chunk counted by the upload monitor so far
+			final long[] chunkBytesWritten = new long[ 1 ];
+			try
 			{
-				final int readBytes = fis.read( buff );
-				if ( readBytes == -1 )
+				final MultipartBody request = getUnirest().post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+						.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+						.field( "filename", file.getName() )
+						.field( "action", bytesOffset == 0 ? "init" : "append" )
+						.field( JSON_KEY_OFFSET, Long.toString( bytesOffset ) );
+				addChunk( request, channel, bytesOffset, chunkBytes, file.getName() );
+				final HttpResponse< String > response = request
+						.uploadMonitor( ( field, fileName, bytesWritten, totalBytes ) -> {
+							if ( "file".equals( field ) )
+							{
+								uploadDialog.addUploadedBytes( bytesWritten - chunkBytesWritten[ 0 ] );
+								chunkBytesWritten[ 0 ] = bytesWritten;
+							}
+						} )
+						.asString();
+				if ( response.getStatus() != HttpURLConnection.HTTP_OK )
+					throw new UnirestException( response.getStatusText() );
+				final long committedOffset = parseOffset( response.getBody(), bytesOffset + chunkBytes );
+				uploadDialog.addUploadedBytes( committedOffset - bytesOffset - chunkBytesWritten[ 0 ] );
+				bytesOffset = committedOffset;
+				nRetries = 0;
+			}
+			catch ( final UnirestException e )
+			{
+				uploadDialog.addUploadedBytes( -chunkBytesWritten[ 0 ] );
+				if ( MAX_RETRIES <= nRetries++ )
 				{
-					break;
+					handleRequestFailure( e );
+					return false;
 				}
-				final long bytesOffsetFinal = bytesOffset;
-				final File tempFile = File.createTempFile( "elephant", ".h5", null );
+				getClientLogger().warning( String.format( "Retry uploading %s: %s", file.getName(), e.getLocalizedMessage() ) );
+				final long committedOffset = getCommittedOffset( file, fileSize );
+				uploadDialog.addUploadedBytes( committedOffset - bytesOffset );
+				bytesOffset = committedOffset;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Send the chunks that the server does not hold, each with its index and
+	 * hash. The server assembles the file from these and the chunks it
+	 * already has when the upload is completed. A failed chunk is retried.
+	 * 
+	 * @return false if the upload failed.
+	 */
+	private boolean uploadMissingChunks( final File file, final FileChannel channel, final long fileSize,
+			final TIntList missingChunks, final UploadDialog uploadDialog ) throws IOException
+	{
+		long missingBytes = 0;
+		for ( int i = 0; i < missingChunks.size(); i++ )
+			missingBytes += chunkBytes( missingChunks.get( i ), fileSize );
+		uploadDialog.addResumedBytes( fileSize - missingBytes );
+		getClientLogger().info( String.format( "%s: %d of %d chunks to upload", file.getName(), missingChunks.size(),
+				numberOfChunks( fileSize ) ) );
+		for ( int i = 0; i < missingChunks.size() && !uploadDialog.isCancelled(); i++ )
+		{
+			final int index = missingChunks.get( i );
+			final long bytesOffset = ( long ) index * CHUNK_SIZE;
+			final int chunkBytes = chunkBytes( index, fileSize );
+			int nRetries = 0;
+			while ( true )
+			{
+				final long[] chunkBytesWritten = new long[ 1 ];
 				try
 				{
-					try ( final FileOutputStream fos = new FileOutputStream( tempFile ) )
-					{
-						fos.write( buff );
-					}
-					Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+					final MultipartBody request = getUnirest().post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
 							.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
 							.field( "filename", file.getName() )
-							.field( "action", bytesOffset == 0 ? "init" : "append" )
-							.field( "file", tempFile )
+							.field( "action", "chunk" )
+							.field( "index", Integer.toString( index ) )
+							.field( JSON_KEY_OFFSET, Long.toString( bytesOffset ) );
+					addChunk( request, channel, bytesOffset, chunkBytes, file.getName() );
+					final HttpResponse< String > response = request
 							.uploadMonitor( ( field, fileName, bytesWritten, totalBytes ) -> {
-								uploadDialog.setLabelText( labelPrefix + String.format( "%.2f MB / %.2f MB",
-										toMB( Math.min( fileSize, bytesOffsetFinal + bytesWritten ) ), toMB( fileSize ) ) );
-								uploadDialog.setProgressBarValue( ( int ) ( 100 * ( bytesOffsetFinal + bytesWritten ) / fileSize ) );
+								if ( "file".equals( field ) )
+								{
+									uploadDialog.addUploadedBytes( bytesWritten - chunkBytesWritten[ 0 ] );
+									chunkBytesWritten[ 0 ] = bytesWritten;
+								}
 							} )
-							.asEmpty();
-					bytesOffset += readBytes;
+							.asString();
+					if ( response.getStatus() != HttpURLConnection.HTTP_OK )
+						throw new UnirestException( response.getStatusText() );
+					uploadDialog.addUploadedBytes( chunkBytes - chunkBytesWritten[ 0 ] );
+					break;
 				}
-				finally
+				catch ( final UnirestException e )
 				{
-					tempFile.delete();
+					uploadDialog.addUploadedBytes( -chunkBytesWritten[ 0 ] );
+					if ( MAX_RETRIES <= nRetries++ )
+					{
+						handleRequestFailure( e );
+						return false;
+					}
+					getClientLogger().warning( String.format( "Retry uploading chunk %d of %s: %s", index, file.getName(),
+							e.getLocalizedMessage() ) );
 				}
 			}
-			Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+		}
+		return true;
+	}
+
+	/**
+	 * Add a chunk of the file as the file field. The chunk is gzip-compressed
+	 * if request compression is enabled and accepted by the server, and if
+	 * compression makes it smaller; the server is told with the
+	 * {@code content_encoding} field. Otherwise the mapped chunk is streamed
+	 * as it is.
+	 */
+	private void addChunk( final MultipartBody request, final FileChannel channel, final long offset, final int length,
+			final String fileName ) throws IOException
+	{
+		final ByteBuffer chunk = channel.map( MapMode.READ_ONLY, offset, length );
+		final int level = getServerSettings().getRequestCompressionLevel();
+		if ( 0 < level && getServerStateManager().isRequestCompressionSupported() )
+		{
+			final byte[] compressed = RequestCompression.gzip( chunk, level );
+			if ( compressed.length < length )
+			{
+				getServerStateManager().addCompressedRequestBytes( length, compressed.length );
+				request.field( "content_encoding", RequestCompression.ENCODING )
+						.field( "file", new ByteArrayInputStream( compressed ), ContentType.APPLICATION_OCTET_STREAM, fileName );
+				return;
+			}
+		}
+		request.field( "file", new MappedChunkInputStream( chunk ), ContentType.APPLICATION_OCTET_STREAM, fileName );
+	}
+
+	/**
+	 * Hash each chunk of the file and ask the server which chunks it is
+	 * missing. The chunks are hashed from mapped regions, so the file is never
+	 * loaded into memory.
+	 * 
+	 * @return the indices of the missing chunks in ascending order, or null if
+	 *         the server does not support deduplicated uploads.
+	 */
+	private TIntList queryMissingChunks( final File file, final FileChannel channel, final long fileSize ) throws IOException
+	{
+		final MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance( CHUNK_HASH_ALGORITHM );
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			handleError( e );
+			return null;
+		}
+		final JsonArray hashes = Json.array();
+		final int nChunks = numberOfChunks( fileSize );
+		for ( int i = 0; i < nChunks; i++ )
+		{
+			digest.update( channel.map( MapMode.READ_ONLY, ( long ) i * CHUNK_SIZE, chunkBytes( i, fileSize ) ) );
+			hashes.add( toHex( digest.digest() ) );
+		}
+		final JsonObject body = Json.object()
+				.add( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+				.add( "filename", file.getName() )
+				.add( "filesize", fileSize )
+				.add( "chunk_size", CHUNK_SIZE )
+				.add( "hash_algorithm", CHUNK_HASH_ALGORITHM )
+				.add( "hashes", hashes );
+		try
+		{
+			final HttpResponse< String > response = postAsString( getEndpointURL( ENDPOINT_UPLOAD_IMAGE_CHUNKS ), body.toString() );
+			if ( response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND )
+			{
+				getClientLogger().info( "The server does not support " + ENDPOINT_UPLOAD_IMAGE_CHUNKS
+						+ ", falling back to " + ENDPOINT_UPLOAD_IMAGE );
+				getServerStateManager().setChunkDedupSupported( false );
+				return null;
+			}
+			if ( response.getStatus() != HttpURLConnection.HTTP_OK )
+				return null;
+			final JsonValue jsonMissing = Json.parse( response.getBody() ).asObject().get( "missing" );
+			if ( jsonMissing == null )
+			{
+				getClientLogger().warning( "Invalid response from " + ENDPOINT_UPLOAD_IMAGE_CHUNKS );
+				return null;
+			}
+			final TIntList missingChunks = new TIntArrayList( jsonMissing.asArray().size() );
+			for ( final JsonValue index : jsonMissing.asArray() )
+				missingChunks.add( index.asInt() );
+			missingChunks.sort();
+			return missingChunks;
+		}
+		catch ( final ElephantConnectException | UnirestException e )
+		{
+			return null;
+		}
+		catch ( final ParseException | UnsupportedOperationException e )
+		{
+			getClientLogger().warning( "Invalid response from " + ENDPOINT_UPLOAD_IMAGE_CHUNKS );
+			return null;
+		}
+	}
+
+	private static int numberOfChunks( final long fileSize )
+	{
+		return ( int ) ( ( fileSize + CHUNK_SIZE - 1 ) / CHUNK_SIZE );
+	}
+
+	private static int chunkBytes( final int index, final long fileSize )
+	{
+		return ( int ) Math.min( CHUNK_SIZE, fileSize - ( long ) index * CHUNK_SIZE );
+	}
+
+	private static String toHex( final byte[] bytes )
+	{
+		final char[] chars = new char[ bytes.length * 2 ];
+		for ( int i = 0; i < bytes.length; i++ )
+		{
+			chars[ i * 2 ] = Character.forDigit( ( bytes[ i ] >> 4 ) & 0xF, 16 );
+			chars[ i * 2 + 1 ] = Character.forDigit( bytes[ i ] & 0xF, 16 );
+		}
+		return new String( chars );
+	}
+
+	/**
+	 * Ask the server how many bytes of an unfinished upload of the file it has
+	 * committed. Returns 0 if there is nothing to resume or if the server does
+	 * not support resuming.
+	 */
+	private long getCommittedOffset( final File file, final long fileSize )
+	{
+		try
+		{
+			final HttpResponse< String > response = getUnirest().post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE_OFFSET ) )
 					.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
 					.field( "filename", file.getName() )
-					.field( "action", uploadDialog.isCancelled() ? "cancel" : "complete" )
-					.asEmpty();
+					.field( "filesize", Long.toString( fileSize ) )
+					.asString();
+			if ( response.getStatus() != HttpURLConnection.HTTP_OK )
+				return 0;
+			final long offset = parseOffset( response.getBody(), 0 );
+			return offset <= fileSize ? offset : 0;
 		}
-		catch ( final IOException e )
+		catch ( final UnirestException e )
 		{
-			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
-			return;
+			getClientLogger().warning( ExceptionUtils.getStackTrace( e ) );
+			return 0;
+		}
+	}
+
+	private static long parseOffset( final String body, final long defaultOffset )
+	{
+		try
+		{
+			final JsonValue offset = Json.parse( body ).asObject().get( JSON_KEY_OFFSET );
+			return offset == null ? defaultOffset : offset.asLong();
+		}
+		catch ( final ParseException | UnsupportedOperationException e )
+		{
+			return defaultOffset;
 		}
 	}
 
-	private void uploadPartition( final Partition partition, final int i, final UploadDialog uploadDialog, final int nPartitions )
+	/**
+	 * An {@link InputStream} over a mapped file region, so that the chunk is
+	 * read from the page cache without a heap copy of the whole chunk.
+	 */
+	private static class MappedChunkInputStream extends InputStream
 	{
-		getClientLogger().info( partition.getPath() );
-		final File hdf5File = new File( partition.getPath() );
-		final String labelPrefix = String.format( "%d / %d: ", i + 1, nPartitions );
-		uploadFile( hdf5File, uploadDialog, labelPrefix );
+		private final ByteBuffer buffer;
+
+		private MappedChunkInputStream( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read( final byte[] b, final int off, final int len )
+		{
+			if ( len == 0 )
+				return 0;
+			if ( !buffer.hasRemaining() )
+				return -1;
+			final int n = Math.min( len, buffer.remaining() );
+			buffer.get( b, off, n );
+			return n;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * Upload the partition files concurrently, with at most
+	 * {@link ElephantMainSettings#getUploadParallelism()} files in flight.
+	 * The chunks of a file are uploaded in order, because the server appends
+	 * them and reports the committed offset as a contiguous prefix.
+	 * 
+	 * @return the number of partition files that were not uploaded.
+	 */
+	private int uploadPartitions( final List< Partition > partitions, final UploadDialog uploadDialog )
+	{
+		final int parallelism = Math.max( 1, getMainSettings().getUploadParallelism() );
+		final ExecutorService executor = Executors.newFixedThreadPool( Math.min( parallelism, partitions.size() ) );
+		final List< Future< Boolean > > results = new ArrayList<>( partitions.size() );
+		try
+		{
+			for ( final Partition partition : partitions )
+			{
+				getClientLogger().info( partition.toString() );
+				final File hdf5File = new File( partition.getPath() );
+				results.add( executor.submit( () -> {
+					try
+					{
+						return uploadFile( hdf5File, uploadDialog );
+					}
+					catch ( final RuntimeException e )
+					{
+						handleError( e );
+						return false;
+					}
+				} ) );
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		int nFailed = 0;
+		try
+		{
+			for ( final Future< Boolean > result : results )
+			{
+				if ( !result.get() )
+					nFailed++;
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			handleError( e );
+			return partitions.size();
+		}
+		catch ( final ExecutionException e )
+		{
+			executor.shutdownNow();
+			handleError( e );
+			return partitions.size();
+		}
+		return nFailed;
 	}
 
 	@Override
@@ -155,19 +561,37 @@ public class UploadAction extends AbstractElephantAction
 			}
 			return;
 		}
-		if ( !( ( Hdf5ImageLoader ) getImgLoader() ).getPartitions().isEmpty() )
+		final List< Partition > partitions = ( ( Hdf5ImageLoader ) getImgLoader() ).getPartitions().isEmpty()
+				? Collections.emptyList()
+				: getPartitions();
+		final File hdf5File = getHdf5File();
+		final UploadDialog uploadDialog = new UploadDialog();
+		for ( final Partition partition : partitions )
+			uploadDialog.addFile( new File( partition.getPath() ).length() );
+		if ( hdf5File != null )
+			uploadDialog.addFile( hdf5File.length() );
+		SwingUtilities.invokeLater( () -> uploadDialog.setVisible( true ) );
+		final long uncompressedBytesBefore = getServerStateManager().getUncompressedRequestBytes();
+		final long compressedBytesBefore = getServerStateManager().getCompressedRequestBytes();
+		try
 		{
-			final UploadDialog uploadDialog = new UploadDialog();
-			SwingUtilities.invokeLater( () -> uploadDialog.setVisible( true ) );
-			try
+			if ( !partitions.isEmpty() )
 			{
-				final ArrayList< Partition > partitions = getPartitions();
-				final int nPartitions = partitions.size();
-				final AtomicInteger count = new AtomicInteger();
-				for ( final Partition partition : partitions )
+				final int nFailed = uploadPartitions( partitions, uploadDialog );
+				if ( !uploadDialog.isCancelled() && 0 < nFailed )
 				{
-					getClientLogger().info( partition.toString() );
-					uploadPartition( partition, count.getAndIncrement(), uploadDialog, nPartitions );
+					final String message = String.format( "Upload failed: %d of %d partition files were not uploaded", nFailed,
+							partitions.size() );
+					getClientLogger().severe( message );
+					try
+					{
+						SwingUtilities.invokeAndWait( () -> JOptionPane.showMessageDialog( null, message ) );
+					}
+					catch ( InvocationTargetException | InterruptedException e )
+					{
+						handleError( e );
+					}
+					return;
 				}
 				if ( uploadDialog.isCancelled() )
 				{
@@ -182,25 +606,16 @@ public class UploadAction extends AbstractElephantAction
 					return;
 				}
 			}
-			finally
-			{
-				SwingUtilities.invokeLater( () -> uploadDialog.dispose() );
-			}
+			if ( hdf5File != null )
+				uploadFile( hdf5File, uploadDialog );
 		}
-
-		File hdf5File = getHdf5File();
-		if ( hdf5File != null )
+		finally
 		{
-			final UploadDialog uploadDialog = new UploadDialog();
-			SwingUtilities.invokeLater( () -> uploadDialog.setVisible( true ) );
-			try
-			{
-				uploadFile( hdf5File, uploadDialog, "" );
-			}
-			finally
-			{
-				SwingUtilities.invokeLater( () -> uploadDialog.dispose() );
-			}
+			final long uncompressedBytes = getServerStateManager().getUncompressedRequestBytes() - uncompressedBytesBefore;
+			if ( 0 < uncompressedBytes )
+				getClientLogger().info( String.format( "Compressed %.2f MB of request bodies to %.2f MB during the upload", toMB( uncompressedBytes ),
+						toMB( getServerStateManager().getCompressedRequestBytes() - compressedBytesBefore ) ) );
+			SwingUtilities.invokeLater( () -> uploadDialog.dispose() );
 		}
 	}
 
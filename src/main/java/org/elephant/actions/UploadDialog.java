@@ -30,24 +30,48 @@
 package org.elephant.actions;
 
 import java.awt.BorderLayout;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 
+/**
+ * Shows the aggregate progress and throughput of uploads, which may run
+ * concurrently. The counters are thread-safe and the view is refreshed
+ * periodically on the EDT.
+ */
 public class UploadDialog extends JDialog
 {
 	private static final long serialVersionUID = 1L;
 
+	private static final int REFRESH_INTERVAL_MS = 500;
+
 	private final JProgressBar progressBar = new JProgressBar();
 
 	private final JLabel lblText = new JLabel( "Uploading" );
 
 	private final JButton btnCancel = new JButton( "Cancel" );
 
-	private boolean isCancelled = false;
+	private volatile boolean isCancelled = false;
+
+	private final AtomicInteger nFiles = new AtomicInteger();
+
+	private final AtomicInteger nCompletedFiles = new AtomicInteger();
+
+	private final AtomicLong totalBytes = new AtomicLong();
+
+	private final AtomicLong uploadedBytes = new AtomicLong();
+
+	private final AtomicLong resumedBytes = new AtomicLong();
+
+	private final long startTime = System.nanoTime();
+
+	private final Timer refreshTimer = new Timer( REFRESH_INTERVAL_MS, e -> refresh() );
 
 	public UploadDialog()
 	{
@@ -65,6 +89,63 @@ public class UploadDialog extends JDialog
 		getContentPane().add( btnCancel, BorderLayout.SOUTH );
 		pack();
 		setLocationRelativeTo( null );
+		refreshTimer.start();
+	}
+
+	@Override
+	public void dispose()
+	{
+		refreshTimer.stop();
+		super.dispose();
+	}
+
+	/**
+	 * Register a file to be uploaded.
+	 */
+	public void addFile( final long bytes )
+	{
+		nFiles.incrementAndGet();
+		totalBytes.addAndGet( bytes );
+	}
+
+	public void fileCompleted()
+	{
+		nCompletedFiles.incrementAndGet();
+	}
+
+	/**
+	 * Count bytes sent in this session. A negative value takes back bytes of a
+	 * failed request.
+	 */
+	public void addUploadedBytes( final long bytes )
+	{
+		uploadedBytes.addAndGet( bytes );
+	}
+
+	/**
+	 * Count bytes that the server already had from an earlier session.
+	 */
+	public void addResumedBytes( final long bytes )
+	{
+		resumedBytes.addAndGet( bytes );
+	}
+
+	private void refresh()
+	{
+		final long uploaded = uploadedBytes.get();
+		final long done = uploaded + resumedBytes.get();
+		final long total = totalBytes.get();
+		final double seconds = ( System.nanoTime() - startTime ) * 1e-9;
+		lblText.setText( String.format( "%d / %d files: %.2f MB / %.2f MB (%.2f MB/s)",
+				nCompletedFiles.get(), nFiles.get(), toMB( done ), toMB( total ), 0 < seconds ? toMB( uploaded ) / seconds : 0 ) );
+		progressBar.setValue( total == 0 ? 0 : ( int ) ( 100 * done / total ) );
+		if ( getWidth() < getPreferredSize().width )
+			pack();
+	}
+
+	private static double toMB( final long bytes )
+	{
+		return ( double ) bytes / 1024 / 1024;
 	}
 
 	public void setLabelText( final String text )
@@ -101,10 +101,14 @@ public interface ElephantConstantsMixin
 
 	public static final String ENDPOINT_DOWNLOAD_CTC = "download/ctc";
 
+	public static final String ENDPOINT_DOWNLOAD_CTC_STREAM = "download/ctc_stream";
+
 	public static final String ENDPOINT_DOWNLOAD_MODEL = "download/model";
 
 	public static final String ENDPOINT_FLOW_PREDICT = "flow/predict";
 
+	public static final String ENDPOINT_FLOW_PREDICT_STREAM = "flow/predict_stream";
+
 	public static final String ENDPOINT_FLOW_RESET_MODEL = "flow/reset";
 
 	public static final String ENDPOINT_FLOW_TRAIN = "flow/train";
@@ -119,6 +123,8 @@ public interface ElephantConstantsMixin
 
 	public static final String ENDPOINT_DETECTION_UPDATE = "seg/update";
 
+	public static final String ENDPOINT_DETECTION_UPDATE_DELTA = "seg/update_delta";
+
 	public static final String ENDPOINT_DETECTION_RESET_MODEL = "seg/reset";
 
 	public static final String ENDPOINT_STATE_GPUS = "state/gpus";
@@ -127,6 +133,10 @@ public interface ElephantConstantsMixin
 
 	public static final String ENDPOINT_UPLOAD_IMAGE = "upload/image";
 
+	public static final String ENDPOINT_UPLOAD_IMAGE_OFFSET = "upload/image/offset";
+
+	public static final String ENDPOINT_UPLOAD_IMAGE_CHUNKS = "upload/image/chunks";
+
 	/**
 	 * REST API JSON keys
 	 */
@@ -159,6 +169,8 @@ public interface ElephantConstantsMixin
 
 	public static final String JSON_KEY_SPOTS = "spots";
 
+	public static final String JSON_KEY_SPOTS_BINARY = "spots_binary";
+
 	public static final String JSON_KEY_T_START = "t_start";
 
 	public static final String JSON_KEY_T_END = "t_end";
@@ -219,4 +231,16 @@ public interface ElephantConstantsMixin
 
 	public static final String JSON_KEY_MODEL_URL = "url";
 
+	public static final String JSON_KEY_OFFSET = "offset";
+
+	public static final String JSON_KEY_SYNC_VERSION = "sync_version";
+
+	public static final String JSON_KEY_DELETED = "deleted";
+
+	public static final String JSON_KEY_PARTIAL_RESULTS = "partial_results";
+
+	public static final String JSON_KEY_PARTIAL_RESULTS_JOB_ID = "partial_results_job_id";
+
+	public static final String JSON_KEY_PARTIAL_RESULTS_ROUTING_KEY = "partial_results_routing_key";
+
 }
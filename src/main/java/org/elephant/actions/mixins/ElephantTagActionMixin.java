@@ -35,6 +35,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
@@ -66,213 +67,137 @@ public interface ElephantTagActionMixin extends TagActionMixin, ElephantConstant
 
 	default ObjTagMap< Spot, Tag > getVertexTagMap( final TagSet tagSet )
 	{
-		return getTagSetModel().getVertexTags().tags( tagSet );
+		return TagResolutionCache.of( getTagSetModel() ).getVertexTagMap( getTagSetModel(), tagSet );
 	}
 
 	default ObjTagMap< Link, Tag > getEdgeTagMap( final TagSet tagSet )
 	{
-		return getTagSetModel().getEdgeTags().tags( tagSet );
+		return TagResolutionCache.of( getTagSetModel() ).getEdgeTagMap( getTagSetModel(), tagSet );
 	}
 
 	default Tag getTagOrCreate( final TagSet tagSet, final Tag tag )
 	{
-		return tagSet.getTags().stream().filter( tagDst -> tagDst.label().equals( tag.label() ) ).findFirst().orElseGet( () -> {
-			return tagSet.createTag( tag.label(), tag.color() );
-		} );
+		final Tag tagDst = getTag( tagSet, tag.label() );
+		return tagDst != null ? tagDst : tagSet.createTag( tag.label(), tag.color() );
 	}
 
 	default TagSet getTagSetOrCreate( final TagSet tagSet )
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		return tss.getTagSets().stream().filter( ts -> ts.getName().equals( tagSet.getName() ) ).findFirst().orElseGet( () -> {
-			final TagSetStructure tssCopy = new TagSetStructure();
-			tssCopy.set( tss );
-			final TagSet tagSetCopy = tssCopy.createTagSet( tagSet.getName() );
+		return getTagSetOrCreate( tagSet.getName(), tagSetCopy -> {
 			for ( final Tag tagQuery : tagSet.getTags() )
 				tagSetCopy.createTag( tagQuery.label(), tagQuery.color() );
-			getTagSetModel().pauseListeners();
-			try
-			{
-				getTagSetModel().setTagSetStructure( tssCopy );
-			}
-			finally
-			{
-				getTagSetModel().resumeListeners();
-			}
-			return tagSetCopy;
 		} );
 	}
 
+	/**
+	 * Get the {@link TagSet} with the name, creating it with the tags added by
+	 * {@code initializer} if it does not exist.
+	 */
+	default TagSet getTagSetOrCreate( final String name, final Consumer< TagSet > initializer )
+	{
+		final TagSet tagSet = TagResolutionCache.of( getTagSetModel() ).getTagSet( getTagSetModel(), name );
+		if ( tagSet != null )
+			return tagSet;
+		final TagSetStructure tssCopy = new TagSetStructure();
+		tssCopy.set( getTagSetModel().getTagSetStructure() );
+		final TagSet tagSetCopy = tssCopy.createTagSet( name );
+		initializer.accept( tagSetCopy );
+		setTagSetStructure( tssCopy );
+		return tagSetCopy;
+	}
+
+	/**
+	 * Set the tag set structure with the listeners paused. The cached tag
+	 * lookups are invalidated here because the listeners are not notified.
+	 */
+	default void setTagSetStructure( final TagSetStructure tss )
+	{
+		getTagSetModel().pauseListeners();
+		try
+		{
+			getTagSetModel().setTagSetStructure( tss );
+		}
+		finally
+		{
+			getTagSetModel().resumeListeners();
+			TagResolutionCache.of( getTagSetModel() ).invalidate();
+		}
+	}
+
 	default TagSet getDetectionTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( DETECTION_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( DETECTION_TAGSET_NAME );
-					tagSetCopy.createTag( DETECTION_TP_TAG_NAME, Color.CYAN.getRGB() );
-					tagSetCopy.createTag( DETECTION_FP_TAG_NAME, Color.MAGENTA.getRGB() );
-					tagSetCopy.createTag( DETECTION_TN_TAG_NAME, Color.MAGENTA.getRGB() );
-					tagSetCopy.createTag( DETECTION_FN_TAG_NAME, Color.CYAN.getRGB() );
-					tagSetCopy.createTag( DETECTION_TB_TAG_NAME, Color.ORANGE.getRGB() );
-					tagSetCopy.createTag( DETECTION_FB_TAG_NAME, Color.ORANGE.getRGB() );
-					tagSetCopy.createTag( DETECTION_UNLABELED_TAG_NAME, Color.GREEN.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+		return getTagSetOrCreate( DETECTION_TAGSET_NAME, tagSetCopy -> {
+			tagSetCopy.createTag( DETECTION_TP_TAG_NAME, Color.CYAN.getRGB() );
+			tagSetCopy.createTag( DETECTION_FP_TAG_NAME, Color.MAGENTA.getRGB() );
+			tagSetCopy.createTag( DETECTION_TN_TAG_NAME, Color.MAGENTA.getRGB() );
+			tagSetCopy.createTag( DETECTION_FN_TAG_NAME, Color.CYAN.getRGB() );
+			tagSetCopy.createTag( DETECTION_TB_TAG_NAME, Color.ORANGE.getRGB() );
+			tagSetCopy.createTag( DETECTION_FB_TAG_NAME, Color.ORANGE.getRGB() );
+			tagSetCopy.createTag( DETECTION_UNLABELED_TAG_NAME, Color.GREEN.getRGB() );
+		} );
 	}
 
 	default TagSet getTrackingTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( TRACKING_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( TRACKING_TAGSET_NAME );
-					tagSetCopy.createTag( TRACKING_APPROVED_TAG_NAME, Color.CYAN.getRGB() );
-					tagSetCopy.createTag( TRACKING_UNLABELED_TAG_NAME, Color.GREEN.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+		return getTagSetOrCreate( TRACKING_TAGSET_NAME, tagSetCopy -> {
+			tagSetCopy.createTag( TRACKING_APPROVED_TAG_NAME, Color.CYAN.getRGB() );
+			tagSetCopy.createTag( TRACKING_UNLABELED_TAG_NAME, Color.GREEN.getRGB() );
+		} );
 	}
 
 	default TagSet getProgenitorTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( PROGENITOR_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( PROGENITOR_TAGSET_NAME );
-					try
-					{
-						final InputStream input = getClass().getResourceAsStream( "/glasbey_no_black.txt" );
-						final BufferedReader bufferedReader = new BufferedReader( new InputStreamReader( input ) );
-						final CSVReader reader = new CSVReader( bufferedReader );
-
-						reader.readNext();
-						// https://stackoverflow.com/questions/14827322/assign-ascii-character-a-z-in-a-list#answer-14827598
-						for ( int i = 1; i < 256; i++ )
-						{
-							final String[] line = reader.readNext();
-							final Color color =
-									new Color( Integer.valueOf( line[ 0 ] ), Integer.valueOf( line[ 1 ] ), Integer.valueOf( line[ 2 ] ) );
-							tagSetCopy.createTag( String.valueOf( i ), color.getRGB() );
-						}
-						reader.close();
-					}
-					catch ( final Exception e )
-					{
-						e.printStackTrace();
-					}
+		return getTagSetOrCreate( PROGENITOR_TAGSET_NAME, tagSetCopy -> {
+			try
+			{
+				final InputStream input = getClass().getResourceAsStream( "/glasbey_no_black.txt" );
+				final BufferedReader bufferedReader = new BufferedReader( new InputStreamReader( input ) );
+				final CSVReader reader = new CSVReader( bufferedReader );
+
+				reader.readNext();
+				// https://stackoverflow.com/questions/14827322/assign-ascii-character-a-z-in-a-list#answer-14827598
+				for ( int i = 1; i < 256; i++ )
+				{
+					final String[] line = reader.readNext();
+					final Color color =
+							new Color( Integer.valueOf( line[ 0 ] ), Integer.valueOf( line[ 1 ] ), Integer.valueOf( line[ 2 ] ) );
+					tagSetCopy.createTag( String.valueOf( i ), color.getRGB() );
+				}
+				reader.close();
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+			}
 
-					tagSetCopy.createTag( TRACKING_UNLABELED_TAG_NAME, transparentColor.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+			tagSetCopy.createTag( TRACKING_UNLABELED_TAG_NAME, transparentColor.getRGB() );
+		} );
 	}
 
 	default TagSet getStatusTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( STATUS_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( STATUS_TAGSET_NAME );
-					tagSetCopy.createTag( STATUS_COMPLETED_TAG_NAME, Color.CYAN.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+		return getTagSetOrCreate( STATUS_TAGSET_NAME, tagSetCopy -> {
+			tagSetCopy.createTag( STATUS_COMPLETED_TAG_NAME, Color.CYAN.getRGB() );
+		} );
 	}
 
 	default TagSet getProliferatorTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( PROLIFERATOR_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( PROLIFERATOR_TAGSET_NAME );
-					tagSetCopy.createTag( PROLIFERATOR_PROLIFERATOR_TAG_NAME, Color.CYAN.getRGB() );
-					tagSetCopy.createTag( PROLIFERATOR_NONPROLIFERATOR_TAG_NAME, Color.MAGENTA.getRGB() );
-					tagSetCopy.createTag( PROLIFERATOR_INVISIBLE_TAG_NAME, transparentColor.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+		return getTagSetOrCreate( PROLIFERATOR_TAGSET_NAME, tagSetCopy -> {
+			tagSetCopy.createTag( PROLIFERATOR_PROLIFERATOR_TAG_NAME, Color.CYAN.getRGB() );
+			tagSetCopy.createTag( PROLIFERATOR_NONPROLIFERATOR_TAG_NAME, Color.MAGENTA.getRGB() );
+			tagSetCopy.createTag( PROLIFERATOR_INVISIBLE_TAG_NAME, transparentColor.getRGB() );
+		} );
 	}
 
 	default TagSet getDivisionTagSet()
 	{
-		final TagSetStructure tss = getTagSetModel().getTagSetStructure();
-		final TagSet tagSet =
-				tss.getTagSets().stream().filter( ts -> ts.getName().equals( DIVISION_TAGSET_NAME ) ).findFirst().orElseGet( () -> {
-					final TagSetStructure tssCopy = new TagSetStructure();
-					tssCopy.set( tss );
-					final TagSet tagSetCopy = tssCopy.createTagSet( DIVISION_TAGSET_NAME );
-					tagSetCopy.createTag( DIVISION_DIVIDING_TAG_NAME, Color.CYAN.getRGB() );
-					tagSetCopy.createTag( DIVISION_DIVIDED_TAG_NAME, Color.YELLOW.getRGB() );
-					tagSetCopy.createTag( DIVISION_NONDIVIDING_TAG_NAME, Color.MAGENTA.getRGB() );
-					tagSetCopy.createTag( DIVISION_INVISIBLE_TAG_NAME, transparentColor.getRGB() );
-					getTagSetModel().pauseListeners();
-					try
-					{
-						getTagSetModel().setTagSetStructure( tssCopy );
-					}
-					finally
-					{
-						getTagSetModel().resumeListeners();
-					}
-					return tagSetCopy;
-				} );
-		return tagSet;
+		return getTagSetOrCreate( DIVISION_TAGSET_NAME, tagSetCopy -> {
+			tagSetCopy.createTag( DIVISION_DIVIDING_TAG_NAME, Color.CYAN.getRGB() );
+			tagSetCopy.createTag( DIVISION_DIVIDED_TAG_NAME, Color.YELLOW.getRGB() );
+			tagSetCopy.createTag( DIVISION_NONDIVIDING_TAG_NAME, Color.MAGENTA.getRGB() );
+			tagSetCopy.createTag( DIVISION_INVISIBLE_TAG_NAME, transparentColor.getRGB() );
+		} );
 	}
 
 	@Override
@@ -62,4 +62,21 @@ public interface GraphActionMixin extends ElephantActionMixin
 		return getGraphIdBimap().getEdgeId( link );
 	}
 
+	/**
+	 * Resolve a spot from its internal pool index through the ref pool of the
+	 * graph.
+	 * 
+	 * @param poolIndex
+	 *            the internal pool index of the spot.
+	 * @param ref
+	 *            a spot reference to be used.
+	 * @return the spot, or {@code null} if no spot exists with the index.
+	 */
+	default Spot getVertexByPoolIndex( final int poolIndex, final Spot ref )
+	{
+		if ( poolIndex < 0 )
+			return null;
+		return getGraph().vertices().getRefPool().getObjectIfExists( poolIndex, ref );
+	}
+
 }
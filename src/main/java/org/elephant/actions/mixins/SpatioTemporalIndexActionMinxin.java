@@ -29,6 +29,10 @@
 
 package org.elephant.actions.mixins;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.spatial.SpatioTemporalIndex;
 
@@ -45,4 +49,44 @@ public interface SpatioTemporalIndexActionMinxin extends ElephantActionMixin
 		return getModel().getSpatioTemporalIndex();
 	}
 
+	/**
+	 * Get the spots in a timepoint range from the per-frame spatial indices
+	 * instead of scanning all the vertices. The caller must hold the read lock
+	 * while iterating.
+	 * 
+	 * @param timepointStart
+	 *            the first timepoint (inclusive).
+	 * @param timepointEnd
+	 *            the last timepoint (inclusive).
+	 * @return the spots in the timepoint range, frame by frame.
+	 */
+	default Iterable< Spot > getSpotsInTimepointRange( final int timepointStart, final int timepointEnd )
+	{
+		final SpatioTemporalIndex< Spot > spatioTemporalIndex = getSpatioTemporalIndex();
+		return () -> new Iterator< Spot >()
+		{
+
+			private int timepoint = timepointStart;
+
+			private Iterator< Spot > iterator = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while ( !iterator.hasNext() && timepoint <= timepointEnd )
+					iterator = spatioTemporalIndex.getSpatialIndex( timepoint++ ).iterator();
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Spot next()
+			{
+				if ( !hasNext() )
+					throw new NoSuchElementException();
+				return iterator.next();
+			}
+
+		};
+	}
+
 }
@@ -50,13 +50,12 @@ public interface TagActionMixin extends ElephantActionMixin
 
 	default TagSet getTagSetByName( final String name )
 	{
-		return getTagSetModel().getTagSetStructure().getTagSets().stream().filter( ts -> ts.getName().equals( name ) ).findFirst()
-				.orElse( null );
+		return TagResolutionCache.of( getTagSetModel() ).getTagSet( getTagSetModel(), name );
 	}
 
 	default Tag getTag( final TagSet tagSet, final String name )
 	{
-		return tagSet.getTags().stream().filter( t -> t.label().equals( name ) ).findFirst().orElse( null );
+		return TagResolutionCache.of( getTagSetModel() ).getTag( tagSet, name );
 	}
 
 }
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * elephant
+ * %%
+ * Copyright (C) 2019 - 2026 Ko Sugawara
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.elephant.actions.mixins;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetModel;
+import org.mastodon.model.tag.TagSetModel.TagSetModelListener;
+import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.model.tag.TagSetStructure.TagSet;
+
+/**
+ * Caches {@link TagSet}s by name, {@link Tag}s by label and {@link ObjTagMap}s
+ * by {@link TagSet} for a {@link TagSetModel}, so that they can be resolved in
+ * per-spot loops and predicates.
+ * <p>
+ * The cached entries belong to a generation of the tag set structure. A new
+ * generation is started when the structure changes, either through
+ * {@link TagSetModelListener} or by {@link #invalidate()} when the structure is
+ * updated with the listeners paused.
+ * 
+ * @author Ko Sugawara
+ */
+final class TagResolutionCache implements TagSetModelListener
+{
+
+	private static final Map< TagSetModel< ?, ? >, TagResolutionCache > CACHES = new WeakHashMap<>();
+
+	private static volatile Entry lastEntry;
+
+	private volatile Generation generation = new Generation();
+
+	private TagResolutionCache()
+	{}
+
+	/**
+	 * Get the cache for the tag set model, creating it if needed.
+	 */
+	static TagResolutionCache of( final TagSetModel< Spot, Link > tagSetModel )
+	{
+		final Entry entry = lastEntry;
+		if ( entry != null && entry.tagSetModel.get() == tagSetModel )
+			return entry.cache;
+		synchronized ( CACHES )
+		{
+			TagResolutionCache cache = CACHES.get( tagSetModel );
+			if ( cache == null )
+			{
+				cache = new TagResolutionCache();
+				tagSetModel.listeners().add( cache );
+				CACHES.put( tagSetModel, cache );
+			}
+			lastEntry = new Entry( tagSetModel, cache );
+			return cache;
+		}
+	}
+
+	@Override
+	public void tagSetStructureChanged()
+	{
+		invalidate();
+	}
+
+	void invalidate()
+	{
+		generation = new Generation();
+	}
+
+	TagSet getTagSet( final TagSetModel< Spot, Link > tagSetModel, final String name )
+	{
+		final Generation current = generation;
+		TagSet tagSet = current.tagSets.get( name );
+		if ( tagSet == null )
+		{
+			tagSet = tagSetModel.getTagSetStructure().getTagSets().stream().filter( ts -> ts.getName().equals( name ) ).findFirst()
+					.orElse( null );
+			if ( tagSet != null )
+				current.tagSets.put( name, tagSet );
+		}
+		return tagSet;
+	}
+
+	Tag getTag( final TagSet tagSet, final String label )
+	{
+		final Map< String, Tag > tags = generation.tags.computeIfAbsent( tagSet, TagResolutionCache::indexTags );
+		Tag tag = tags.get( label );
+		if ( tag == null )
+		{
+			// the tag may have been created after indexing
+			tag = tagSet.getTags().stream().filter( t -> t.label().equals( label ) ).findFirst().orElse( null );
+			if ( tag != null )
+				tags.put( label, tag );
+		}
+		return tag;
+	}
+
+	ObjTagMap< Spot, Tag > getVertexTagMap( final TagSetModel< Spot, Link > tagSetModel, final TagSet tagSet )
+	{
+		return generation.vertexTagMaps.computeIfAbsent( tagSet, ts -> tagSetModel.getVertexTags().tags( ts ) );
+	}
+
+	ObjTagMap< Link, Tag > getEdgeTagMap( final TagSetModel< Spot, Link > tagSetModel, final TagSet tagSet )
+	{
+		return generation.edgeTagMaps.computeIfAbsent( tagSet, ts -> tagSetModel.getEdgeTags().tags( ts ) );
+	}
+
+	private static Map< String, Tag > indexTags( final TagSet tagSet )
+	{
+		final Map< String, Tag > tags = new ConcurrentHashMap<>();
+		for ( final Tag tag : tagSet.getTags() )
+			tags.putIfAbsent( tag.label(), tag );
+		return tags;
+	}
+
+	private static final class Generation
+	{
+
+		private final Map< String, TagSet > tagSets = new ConcurrentHashMap<>();
+
+		private final Map< TagSet, Map< String, Tag > > tags = new ConcurrentHashMap<>();
+
+		private final Map< TagSet, ObjTagMap< Spot, Tag > > vertexTagMaps = new ConcurrentHashMap<>();
+
+		private final Map< TagSet, ObjTagMap< Link, Tag > > edgeTagMaps = new ConcurrentHashMap<>();
+
+	}
+
+	private static final class Entry
+	{
+
+		private final WeakReference< TagSetModel< ?, ? > > tagSetModel;
+
+		private final TagResolutionCache cache;
+
+		private Entry( final TagSetModel< ?, ? > tagSetModel, final TagResolutionCache cache )
+		{
+			this.tagSetModel = new WeakReference<>( tagSetModel );
+			this.cache = cache;
+		}
+
+	}
+
+}
@@ -30,30 +30,63 @@
 package org.elephant.actions.mixins;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import javax.net.ssl.SSLHandshakeException;
 import javax.swing.JOptionPane;
 
+import org.elephant.actions.ElephantServerStateManager;
 import org.elephant.actions.ElephantStatusService.ElephantStatus;
+import org.elephant.actions.RequestCompression;
+import org.elephant.actions.SpotColumns;
+import org.elephant.actions.UnirestService;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
 import kong.unirest.Callback;
+import kong.unirest.HttpRequestWithBody;
 import kong.unirest.HttpResponse;
 import kong.unirest.MultipartBody;
+import kong.unirest.RawResponse;
 import kong.unirest.RequestBodyEntity;
-import kong.unirest.Unirest;
 import kong.unirest.UnirestException;
+import kong.unirest.UnirestInstance;
 
 /**
  * Wrapper for Unirest.
  * 
  * @author Ko Sugawara
  */
-public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UIActionMixin
+public interface UnirestMixin extends ElephantStateManagerMixin, ElephantSettingsMixin, LoggerMixin, UIActionMixin
 {
 
+	/**
+	 * The {@link UnirestInstance} that sends the requests of this action.
+	 * Override this to send them through another {@link UnirestService.Pool}.
+	 */
+	default UnirestInstance getUnirest()
+	{
+		return UnirestService.getInstance( UnirestService.Pool.ACTION );
+	}
+
+	/**
+	 * Count an asynchronous request as active until it has completed. The
+	 * given future is returned so that cancelling it still cancels the
+	 * request.
+	 */
+	default < T > CompletableFuture< T > trackRequest( final CompletableFuture< T > future )
+	{
+		getServerStateManager().requestStarted();
+		future.whenComplete( ( result, throwable ) -> getServerStateManager().requestFinished() );
+		return future;
+	}
+
 	default void validateServerAvailability() throws ElephantConnectException
 	{
 		if ( getServerStateManager().getElephantServerStatus() == ElephantStatus.UNAVAILABLE )
@@ -65,19 +98,62 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 		}
 	}
 
+	default void handleRequestFailure( final UnirestException e )
+	{
+		if ( !( e.getCause() instanceof SSLHandshakeException ) )
+		{
+			handleError( e );
+			getClientLogger().severe( "The request has failed" );
+			showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+		}
+	}
+
+	/**
+	 * Post a JSON body. The body is gzip-compressed if a compression level is
+	 * set in the server settings and the server has advertised that it
+	 * accepts gzip request bodies.
+	 */
 	default RequestBodyEntity postBaseJson( final String endpointUrl, final String body ) throws ElephantConnectException
 	{
 		validateServerAvailability();
-		return Unirest.post( endpointUrl )
-				.header( "Content-Type", "application/json" )
-				.body( body );
+		final HttpRequestWithBody request = getUnirest().post( endpointUrl )
+				.header( "Content-Type", "application/json" );
+		final byte[] compressed = compressRequestBody( body.getBytes( StandardCharsets.UTF_8 ) );
+		if ( compressed != null )
+			return request.header( "Content-Encoding", RequestCompression.ENCODING ).body( compressed );
+		return request.body( body );
+	}
+
+	/**
+	 * Compress a request body if request compression is enabled and accepted
+	 * by the server, counting the bytes in {@link ElephantServerStateManager}.
+	 * 
+	 * @return the compressed body, or null if it should be sent as it is.
+	 */
+	default byte[] compressRequestBody( final byte[] body )
+	{
+		final int level = getServerSettings().getRequestCompressionLevel();
+		if ( level <= 0 || body.length < RequestCompression.MIN_BYTES
+				|| !getServerStateManager().isRequestCompressionSupported() )
+			return null;
+		try
+		{
+			final byte[] compressed = RequestCompression.gzip( body, level );
+			getServerStateManager().addCompressedRequestBytes( body.length, compressed.length );
+			return compressed;
+		}
+		catch ( final IOException e )
+		{
+			handleError( e );
+			return null;
+		}
 	}
 
 	default MultipartBody postBaseMultipartFormData( final String endpointUrl, final File file, final String data )
 			throws ElephantConnectException
 	{
 		validateServerAvailability();
-		return Unirest.post( endpointUrl )
+		return getUnirest().post( endpointUrl )
 				.field( "file", file )
 				.field( "data", data );
 	}
@@ -87,14 +163,7 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 			final Consumer< HttpResponse< String > > completed ) throws ElephantConnectException
 	{
 		return postMultipartFormDataAsStringAsync( endpointUrl, file, data, completed,
-				e -> {
-					if ( !( e.getCause() instanceof SSLHandshakeException ) )
-					{
-						handleError( e );
-						getClientLogger().severe( "The request has failed" );
-						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
-					}
-				},
+				this::handleRequestFailure,
 				() -> getClientLogger().info( "The request has been cancelled" ) );
 	}
 
@@ -103,7 +172,7 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 			final Consumer< HttpResponse< String > > completed, final Consumer< UnirestException > failed, final Runnable cancelled )
 			throws ElephantConnectException
 	{
-		return postBaseMultipartFormData( endpointUrl, file, data ).asStringAsync( new Callback< String >()
+		return trackRequest( postBaseMultipartFormData( endpointUrl, file, data ).asStringAsync( new Callback< String >()
 		{
 
 			@Override
@@ -124,21 +193,57 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 				cancelled.run();
 			}
 
-		} );
+		} ) );
+	}
+
+	/**
+	 * Post a file and JSON data as multipart form data, saving the response to
+	 * {@code path}. The file is streamed from disk rather than loaded into
+	 * memory.
+	 */
+	default CompletableFuture< HttpResponse< File > > postMultipartFormDataAsFileAsync( final String endpointUrl, final File file,
+			final String data, final String path,
+			final Consumer< HttpResponse< File > > completed ) throws ElephantConnectException
+	{
+		return postMultipartFormDataAsFileAsync( endpointUrl, file, data, path, completed,
+				this::handleRequestFailure,
+				() -> getClientLogger().info( "The request has been cancelled" ) );
+	}
+
+	default CompletableFuture< HttpResponse< File > > postMultipartFormDataAsFileAsync( final String endpointUrl, final File file,
+			final String data, final String path,
+			final Consumer< HttpResponse< File > > completed, final Consumer< UnirestException > failed, final Runnable cancelled )
+			throws ElephantConnectException
+	{
+		return trackRequest( postBaseMultipartFormData( endpointUrl, file, data ).asFileAsync( path, new Callback< File >()
+		{
+
+			@Override
+			public void failed( UnirestException e )
+			{
+				failed.accept( e );
+			};
+
+			@Override
+			public void completed( HttpResponse< File > response )
+			{
+				completed.accept( response );
+			}
+
+			@Override
+			public void cancelled()
+			{
+				cancelled.run();
+			}
+
+		} ) );
 	}
 
 	default CompletableFuture< HttpResponse< String > > postAsStringAsync( final String endpointUrl, final String body,
 			final Consumer< HttpResponse< String > > completed ) throws ElephantConnectException
 	{
 		return postAsStringAsync( endpointUrl, body, completed,
-				e -> {
-					if ( !( e.getCause() instanceof SSLHandshakeException ) )
-					{
-						handleError( e );
-						getClientLogger().severe( "The request has failed" );
-						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
-					}
-				},
+				this::handleRequestFailure,
 				() -> getClientLogger().info( "The request has been cancelled" ) );
 	}
 
@@ -146,7 +251,7 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 			final Consumer< HttpResponse< String > > completed, final Consumer< UnirestException > failed, final Runnable cancelled )
 			throws ElephantConnectException
 	{
-		return postBaseJson( endpointUrl, body ).asStringAsync( new Callback< String >()
+		return trackRequest( postBaseJson( endpointUrl, body ).asStringAsync( new Callback< String >()
 		{
 
 			@Override
@@ -167,26 +272,191 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 				cancelled.run();
 			}
 
-		} );
+		} ) );
+	}
+
+	/**
+	 * Post a JSON body to an endpoint that returns spots, accepting the binary
+	 * spot format in addition to JSON. The response content type tells which
+	 * one the server used (see {@link SpotColumns#fromResponseBody}).
+	 */
+	default CompletableFuture< HttpResponse< byte[] > > postAsSpotsAsync( final String endpointUrl, final String body,
+			final Consumer< HttpResponse< byte[] > > completed ) throws ElephantConnectException
+	{
+		return postAsSpotsAsync( endpointUrl, body, completed,
+				this::handleRequestFailure,
+				() -> getClientLogger().info( "The request has been cancelled" ) );
+	}
+
+	default CompletableFuture< HttpResponse< byte[] > > postAsSpotsAsync( final String endpointUrl, final String body,
+			final Consumer< HttpResponse< byte[] > > completed, final Consumer< UnirestException > failed, final Runnable cancelled )
+			throws ElephantConnectException
+	{
+		return trackRequest( postBaseJson( endpointUrl, body )
+				.accept( SpotColumns.CONTENT_TYPE + ", application/json" )
+				.asBytesAsync( new Callback< byte[] >()
+				{
+
+					@Override
+					public void failed( UnirestException e )
+					{
+						failed.accept( e );
+					};
+
+					@Override
+					public void completed( HttpResponse< byte[] > response )
+					{
+						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+							getServerStateManager().setBinarySpotsSupported(
+									SpotColumns.isBinary( response.getHeaders().getFirst( "Content-Type" ) ) );
+						completed.accept( response );
+					}
+
+					@Override
+					public void cancelled()
+					{
+						cancelled.run();
+					}
+
+				} ) );
+	}
+
+	/**
+	 * Post a JSON body to an endpoint that returns spots and pass the spots to
+	 * {@code batchConsumer} in batches while the response body is being read
+	 * (see {@link SpotColumns#readBatches}). This call blocks until the
+	 * response has been consumed, so it should not be called on the EDT. A
+	 * response with a status other than OK is passed to {@code notOk} while
+	 * its body is still readable.
+	 * 
+	 * @return the value of the {@code completed} field of the response, or
+	 *         false if the status was not OK.
+	 * @throws UncheckedIOException
+	 *             if the response body is truncated or cannot be read.
+	 * @throws IllegalArgumentException
+	 *             if the response body is not in a spot format.
+	 */
+	default boolean postAsSpotBatches( final String endpointUrl, final String body, final int batchSize,
+			final Consumer< SpotColumns > batchConsumer, final Consumer< RawResponse > notOk ) throws ElephantConnectException
+	{
+		final RequestBodyEntity request = postBaseJson( endpointUrl, body );
+		final boolean[] completed = { false };
+		// Unirest does not pass exceptions thrown while consuming the response on
+		final AtomicReference< RuntimeException > readFailure = new AtomicReference<>();
+		getServerStateManager().requestStarted();
+		try
+		{
+			request
+					.accept( SpotColumns.CONTENT_TYPE + ", application/json" )
+					.thenConsume( rawResponse -> {
+						if ( rawResponse.getStatus() != HttpURLConnection.HTTP_OK )
+						{
+							notOk.accept( rawResponse );
+							return;
+						}
+						final String contentType = rawResponse.getHeaders().getFirst( "Content-Type" );
+						getServerStateManager().setBinarySpotsSupported( SpotColumns.isBinary( contentType ) );
+						try
+						{
+							completed[ 0 ] = SpotColumns.readBatches( contentType, rawResponse.getContent(), batchSize, batchConsumer );
+						}
+						catch ( final IOException e )
+						{
+							readFailure.set( new UncheckedIOException( e ) );
+						}
+						catch ( final IllegalArgumentException e )
+						{
+							readFailure.set( e );
+						}
+					} );
+		}
+		finally
+		{
+			getServerStateManager().requestFinished();
+		}
+		if ( readFailure.get() != null )
+			throw readFailure.get();
+		return completed[ 0 ];
+	}
+
+	/**
+	 * Post a JSON body to an endpoint that streams spots back, one block per
+	 * frame (see {@link SpotColumns.FrameReader}). Each block is passed to
+	 * {@code frameConsumer} as soon as it has been received; returning false
+	 * from it stops reading. This call blocks until the response has been
+	 * consumed, so it should not be called on the EDT. A response with a status
+	 * other than OK is passed to {@code notOk} while its body is still
+	 * readable.
+	 * 
+	 * @throws UncheckedIOException
+	 *             if the response body is truncated or cannot be read.
+	 * @throws IllegalArgumentException
+	 *             if the response body is not in a spot format.
+	 */
+	default void postAsSpotStream( final String endpointUrl, final String body,
+			final Predicate< SpotColumns > frameConsumer, final Consumer< RawResponse > notOk ) throws ElephantConnectException
+	{
+		final RequestBodyEntity request = postBaseJson( endpointUrl, body );
+		// Unirest does not pass exceptions thrown while consuming the response on
+		final AtomicReference< RuntimeException > readFailure = new AtomicReference<>();
+		getServerStateManager().requestStarted();
+		try
+		{
+			request
+					.accept( SpotColumns.CONTENT_TYPE + ", " + SpotColumns.NDJSON_CONTENT_TYPE )
+					.thenConsume( rawResponse -> {
+						if ( rawResponse.getStatus() != HttpURLConnection.HTTP_OK )
+						{
+							notOk.accept( rawResponse );
+							return;
+						}
+						try (final SpotColumns.FrameReader reader = new SpotColumns.FrameReader(
+								rawResponse.getHeaders().getFirst( "Content-Type" ), rawResponse.getContent() ))
+						{
+							SpotColumns frame;
+							while ( ( frame = reader.next() ) != null )
+							{
+								if ( !frameConsumer.test( frame ) )
+									break;
+							}
+						}
+						catch ( final IOException e )
+						{
+							readFailure.set( new UncheckedIOException( e ) );
+						}
+						catch ( final IllegalArgumentException e )
+						{
+							readFailure.set( e );
+						}
+					} );
+		}
+		finally
+		{
+			getServerStateManager().requestFinished();
+		}
+		if ( readFailure.get() != null )
+			throw readFailure.get();
 	}
 
 	default HttpResponse< String > postAsString( final String endpointUrl, final String body ) throws ElephantConnectException
 	{
-		return postBaseJson( endpointUrl, body ).asString();
+		final RequestBodyEntity request = postBaseJson( endpointUrl, body );
+		getServerStateManager().requestStarted();
+		try
+		{
+			return request.asString();
+		}
+		finally
+		{
+			getServerStateManager().requestFinished();
+		}
 	}
 
 	default CompletableFuture< HttpResponse< File > > postAsFileAsync( final String endpointUrl, final String body,
 			final String path, final Consumer< HttpResponse< File > > completed ) throws ElephantConnectException
 	{
 		return postAsFileAsync( endpointUrl, body, path, completed,
-				e -> {
-					if ( !( e.getCause() instanceof SSLHandshakeException ) )
-					{
-						handleError( e );
-						getClientLogger().severe( "The request has failed" );
-						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
-					}
-				},
+				this::handleRequestFailure,
 				() -> getClientLogger().info( "The request has been cancelled" ) );
 	}
 
@@ -194,7 +464,7 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 			final Consumer< HttpResponse< File > > completed, final Consumer< UnirestException > failed, final Runnable cancelled )
 			throws ElephantConnectException
 	{
-		return postBaseJson( endpointUrl, body ).asFileAsync( path, new Callback< File >()
+		return trackRequest( postBaseJson( endpointUrl, body ).asFileAsync( path, new Callback< File >()
 		{
 
 			@Override
@@ -215,7 +485,7 @@ public interface UnirestMixin extends ElephantStateManagerMixin, LoggerMixin, UI
 				cancelled.run();
 			}
 
-		} );
+		} ) );
 	}
 
 }
@@ -131,10 +131,18 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	public static final boolean DEFAULT_USE_INTERPOLATION = false;
 
+	public static final boolean DEFAULT_USE_GLOBAL_ASSIGNMENT = false;
+
+	public static final boolean DEFAULT_USE_LOCAL_CTC_EXPORT = false;
+
 	public static final boolean DEFAULT_USE_2D_MODEL = false;
 
 	public static final boolean DEFAULT_USE_MEMMAP = true;
 
+	public static final int DEFAULT_PREDICTION_PIPELINE_SIZE = 1;
+
+	public static final int DEFAULT_UPLOAD_PARALLELISM = 4;
+
 	public static final String DEFAULT_DETECTION_MODEL_NAME = "detection.pth";
 
 	public static final String DEFAULT_FLOW_MODEL_NAME = "flow.pth";
@@ -206,8 +214,12 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		cacheMaxbytesMebi = settings.cacheMaxbytesMebi;
 		useOpticalflow = settings.useOpticalflow;
 		useInterpolation = settings.useInterpolation;
+		useGlobalAssignment = settings.useGlobalAssignment;
+		useLocalCtcExport = settings.useLocalCtcExport;
 		use2dModel = settings.use2dModel;
 		useMemmap = settings.useMemmap;
+		predictionPipelineSize = settings.predictionPipelineSize;
+		uploadParallelism = settings.uploadParallelism;
 		detectionModelName = settings.detectionModelName;
 		flowModelName = settings.flowModelName;
 		detectionLogName = settings.detectionLogName;
@@ -305,10 +317,18 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	private boolean useInterpolation = DEFAULT_USE_INTERPOLATION;
 
+	private boolean useGlobalAssignment = DEFAULT_USE_GLOBAL_ASSIGNMENT;
+
+	private boolean useLocalCtcExport = DEFAULT_USE_LOCAL_CTC_EXPORT;
+
 	private boolean use2dModel = DEFAULT_USE_2D_MODEL;
 
 	private boolean useMemmap = DEFAULT_USE_MEMMAP;
 
+	private int predictionPipelineSize = DEFAULT_PREDICTION_PIPELINE_SIZE;
+
+	private int uploadParallelism = DEFAULT_UPLOAD_PARALLELISM;
+
 	private String detectionModelName = DEFAULT_DETECTION_MODEL_NAME;
 
 	private String flowModelName = DEFAULT_FLOW_MODEL_NAME;
@@ -942,6 +962,34 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		}
 	}
 
+	public boolean getUseGlobalAssignment()
+	{
+		return useGlobalAssignment;
+	}
+
+	public synchronized void setUseGlobalAssignment( final boolean useGlobalAssignment )
+	{
+		if ( this.useGlobalAssignment != useGlobalAssignment )
+		{
+			this.useGlobalAssignment = useGlobalAssignment;
+			notifyListeners();
+		}
+	}
+
+	public boolean getUseLocalCtcExport()
+	{
+		return useLocalCtcExport;
+	}
+
+	public synchronized void setUseLocalCtcExport( final boolean useLocalCtcExport )
+	{
+		if ( this.useLocalCtcExport != useLocalCtcExport )
+		{
+			this.useLocalCtcExport = useLocalCtcExport;
+			notifyListeners();
+		}
+	}
+
 	public boolean getUse2dModel()
 	{
 		return use2dModel;
@@ -970,6 +1018,34 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		}
 	}
 
+	public int getPredictionPipelineSize()
+	{
+		return predictionPipelineSize;
+	}
+
+	public synchronized void setPredictionPipelineSize( final int predictionPipelineSize )
+	{
+		if ( this.predictionPipelineSize != predictionPipelineSize )
+		{
+			this.predictionPipelineSize = predictionPipelineSize;
+			notifyListeners();
+		}
+	}
+
+	public int getUploadParallelism()
+	{
+		return uploadParallelism;
+	}
+
+	public synchronized void setUploadParallelism( final int uploadParallelism )
+	{
+		if ( this.uploadParallelism != uploadParallelism )
+		{
+			this.uploadParallelism = uploadParallelism;
+			notifyListeners();
+		}
+	}
+
 	public String getDetectionModelName()
 	{
 		return detectionModelName != null ? detectionModelName : DEFAULT_DETECTION_MODEL_NAME;
@@ -1101,8 +1177,12 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		df.cacheMaxbytesMebi = DEFAULT_CACHE_MAXBYTES_MEBI;
 		df.useOpticalflow = DEFAULT_USE_OPTICALFLOW;
 		df.useInterpolation = DEFAULT_USE_INTERPOLATION;
+		df.useGlobalAssignment = DEFAULT_USE_GLOBAL_ASSIGNMENT;
+		df.useLocalCtcExport = DEFAULT_USE_LOCAL_CTC_EXPORT;
 		df.use2dModel = DEFAULT_USE_2D_MODEL;
 		df.useMemmap = DEFAULT_USE_MEMMAP;
+		df.predictionPipelineSize = DEFAULT_PREDICTION_PIPELINE_SIZE;
+		df.uploadParallelism = DEFAULT_UPLOAD_PARALLELISM;
 		df.detectionModelName = DEFAULT_DETECTION_MODEL_NAME;
 		df.flowModelName = DEFAULT_FLOW_MODEL_NAME;
 		df.detectionLogName = DEFAULT_DETECTION_LOG_NAME;
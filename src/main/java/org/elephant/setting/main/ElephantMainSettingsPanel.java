@@ -123,6 +123,7 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				intElement( "NN max edges", 1, 5, style::getNNMaxEdges, style::setNNMaxEdges ),
 				booleanElement( "use optical flow for linking", style::getUseOpticalflow, style::setUseOpticalflow ),
 				booleanElement( "use interpolation for linking", style::getUseInterpolation, style::setUseInterpolation ),
+				booleanElement( "use global assignment for linking", style::getUseGlobalAssignment, style::setUseGlobalAssignment ),
 
 				separator(),
 
@@ -144,6 +145,7 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				booleanElement( "output prediction", style::getOutputPrediction, style::setOutputPrediction ),
 				booleanElement( "apply slice-wise median correction", style::getMedianCorrection, style::setMedianCorrection ),
 				booleanElement( "mitigate edge discontinuities", style::getPad, style::setPad ),
+				booleanElement( "export CTC masks locally", style::getUseLocalCtcExport, style::setUseLocalCtcExport ),
 
 				separator(),
 
@@ -178,6 +180,10 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				intElement( "Training log interval", 0, Integer.MAX_VALUE, style::getLogInterval, style::setLogInterval ),
 				intElement( "Cache maximum bytes (MiB)", 0, Integer.MAX_VALUE, style::getCacheMaxbytesMebi, style::setCacheMaxbytesMebi ),
 				booleanElement( "use memmap", style::getUseMemmap, style::setUseMemmap ),
+				intElement( "prediction pipeline size (frames in flight)", 1, 64, style::getPredictionPipelineSize,
+						style::setPredictionPipelineSize ),
+				intElement( "upload parallelism (files in flight)", 1, 20, style::getUploadParallelism,
+						style::setUploadParallelism ),
 				// booleanElement( "use 2d model", style::getUse2dModel, style::setUse2dModel ),
 
 				separator(),
@@ -59,6 +59,8 @@ public class ElephantServerSettings extends AbstractElephantSettings< ElephantSe
 
 	public static final boolean DEFAULT_RABBITMQ_VERIFY_SSL = false;
 
+	public static final int DEFAULT_REQUEST_COMPRESSION_LEVEL = 0;
+
 	@Override
 	public ElephantServerSettings copy( String name )
 	{
@@ -87,6 +89,7 @@ public class ElephantServerSettings extends AbstractElephantSettings< ElephantSe
 		rabbitMQPassword = settings.rabbitMQPassword;
 		useSslProtocol = settings.useSslProtocol;
 		verifySSL = settings.verifySSL;
+		requestCompressionLevel = settings.requestCompressionLevel;
 		notifyListeners();
 	}
 
@@ -106,6 +109,8 @@ public class ElephantServerSettings extends AbstractElephantSettings< ElephantSe
 
 	private boolean verifySSL;
 
+	private int requestCompressionLevel;
+
 	public String getServerURL()
 	{
 		return serverURL != null ? serverURL : DEFAULT_SERVER_URL;
@@ -218,6 +223,24 @@ public class ElephantServerSettings extends AbstractElephantSettings< ElephantSe
 		}
 	}
 
+	/**
+	 * @return the gzip level for request bodies, or 0 if requests are not
+	 *         compressed.
+	 */
+	public int getRequestCompressionLevel()
+	{
+		return requestCompressionLevel;
+	}
+
+	public synchronized void setRequestCompressionLevel( final int requestCompressionLevel )
+	{
+		if ( this.requestCompressionLevel != requestCompressionLevel )
+		{
+			this.requestCompressionLevel = requestCompressionLevel;
+			notifyListeners();
+		}
+	}
+
 	private static final ElephantServerSettings df;
 	static
 	{
@@ -230,6 +253,7 @@ public class ElephantServerSettings extends AbstractElephantSettings< ElephantSe
 		df.rabbitMQPassword = DEFAULT_RABBITMQ_PASSWORD;
 		df.useSslProtocol = DEFAULT_RABBITMQ_USE_SSL_PROTOCOL;
 		df.verifySSL = DEFAULT_RABBITMQ_VERIFY_SSL;
+		df.requestCompressionLevel = DEFAULT_REQUEST_COMPRESSION_LEVEL;
 		df.name = "Default";
 	}
 
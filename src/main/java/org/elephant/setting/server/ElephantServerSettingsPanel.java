@@ -33,6 +33,7 @@ import static org.elephant.setting.StyleElementsEx.intElementEx;
 import static org.elephant.setting.StyleElementsEx.passwordElement;
 import static org.elephant.setting.StyleElementsEx.stringElement;
 import static org.mastodon.app.ui.StyleElements.booleanElement;
+import static org.mastodon.app.ui.StyleElements.intElement;
 import static org.mastodon.app.ui.StyleElements.separator;
 
 import java.util.Arrays;
@@ -62,6 +63,8 @@ public class ElephantServerSettingsPanel extends AbstractElephantSettingsPanel<
 	{
 		return Arrays.asList(
 				stringElement( "ELEPHANT server URL with port number", style::getServerURL, style::setServerURL ),
+				intElement( "Request compression level (gzip, 0: off)", 0, 9, style::getRequestCompressionLevel,
+						style::setRequestCompressionLevel ),
 
 				separator(),
 